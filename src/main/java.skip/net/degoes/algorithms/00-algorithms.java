@@ -15,70 +15,6 @@
  */
 package net.degoes.algorithms;
 
-import java.util.List;
-import java.util.Optional;
-import java.util.Random;
-import java.util.Comparator;
-import java.util.stream.Collectors;
-import java.util.stream.IntStream;
-
-final class SocialNetwork {
-  List<Person> people;
-
-  public SocialNetwork(List<Person> people) {
-    this.people = people;
-  }
-
-  List<Integer> getFriendsOf(int id) {
-    // Retrieve all the people that $id follows:
-    List<Integer> follows = people.get(id).follows;
-
-    // Return only the people that follow $id back ("friends"):
-    return follows.stream().filter(candidateId ->
-      people.get(candidateId).follows.contains(id)
-    ).collect(Collectors.toList());
-  }
-
-  public Optional<Integer> findMostPopularFriend() {
-    List<int[]> personAndFriendCount =
-      people.stream().map(person ->
-        // Map to array of person id and number of friends:
-        new int[]{person.id, getFriendsOf(person.id).size()}
-      ).collect(Collectors.toList());
-
-    Optional<int[]> mostPopular = personAndFriendCount.stream().max(Comparator.comparingInt(array -> array[1]));
-
-    return mostPopular.map(array -> array[0]);
-  }
-  
-  // Deterministic RNG:
-  private static Random rng = new Random(0L);
-
-  public static SocialNetwork random(int people, int friendsPerPerson) {
-    List<Person> members = IntStream.range(0, people).boxed().map(id -> {
-      var friends = IntStream.range(0, friendsPerPerson).map(x -> rng.nextInt(people)).boxed().collect(Collectors.toList());
-
-      return new Person(id, rng.nextInt(100), "Person "+id, friends);
-    }).collect(Collectors.toList());
-
-    return new SocialNetwork(members);
-  }
-}
-
-final class Person {
-  int id;
-  int age;
-  String name;
-  List<Integer> follows;
-
-  public Person(int id, int age, String name, List<Integer> follows) {
-    this.id = id;
-    this.age = age;
-    this.name = name;
-    this.follows = follows;
-  }
-}
-
 /**
  * EXERCISE 1
  *
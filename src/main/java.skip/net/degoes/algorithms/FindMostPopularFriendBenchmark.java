@@ -2,16 +2,57 @@ package net.degoes.algorithms;
 
 import org.openjdk.jmh.annotations.*;
 import org.openjdk.jmh.infra.Blackhole;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.TimeUnit;
-import java.util.List;
-import java.util.Comparator;
-import java.util.Optional;
-import java.util.Random;
-import java.util.stream.IntStream;
-import java.util.stream.Collectors;
 
+/**
+ * Measures `findMostPopularFriend` as the network grows, both in size and in friends per person,
+ * and with the number of workers counting friends: one means the sequential version, more a
+ * pool of that many. `community` adds a close community of that many people, who all follow each
+ * other, to the otherwise random network. `bitsets` adds the bitsets of `SocialNetwork.withBitsets`,
+ * which random follows are too sparse to get, but such a community gets at any network size. Runs
+ * on one benchmark thread, so that all parallelism comes from the pool.
+ */
+@State(Scope.Thread)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@BenchmarkMode({Mode.Throughput})
+@Warmup(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@Fork(1)
+@Threads(1)
 public class FindMostPopularFriendBenchmark {
+  @Param({"1000", "100000", "1000000"})
+  int networkSize = 0;
+
+  @Param({"10", "100"})
+  int friendsPerPerson = 0;
+
+  @Param({"1", "2", "4", "8", "16"})
+  int threads = 0;
+
+  @Param({"0", "2000"})
+  int community = 0;
+
+  @Param({"false", "true"})
+  boolean bitsets = false;
+
+  SocialNetwork network = null;
+  ForkJoinPool pool = null;
+
+  @Setup
+  public void setup() {
+    network = SocialNetwork.random(networkSize, friendsPerPerson, community);
+    if (bitsets) network = network.withBitsets();
+    pool = threads == 1 ? null : new ForkJoinPool(threads);
+  }
+
+  @TearDown
+  public void tearDown() {
+    if (pool != null) pool.shutdown();
+  }
+
   @Benchmark
   public void findMostPopularFriend(Blackhole blackHole) {
+    blackHole.consume(pool == null ? network.findMostPopularFriend() : network.findMostPopularFriend(pool));
   }
 }
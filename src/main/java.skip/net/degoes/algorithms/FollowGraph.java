@@ -0,0 +1,189 @@
+package net.degoes.algorithms;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * The follows of a `SocialNetwork` in compressed sparse row form: the people that person `id`
+ * follows are `targets[offsets[id]]` up to `targets[offsets[id + 1]]`, sorted, so that "does `a`
+ * follow `b`" is a binary search rather than a scan of a boxed list.
+ *
+ * Follows are kept with their multiplicity, as in `Person.follows`: a person who follows someone
+ * twice counts that friend twice, exactly as `SocialNetwork.getFriendsOf` always has.
+ *
+ * Graphs opened from a file (see `GraphFile`) are instead backed by memory-mapped sections, and
+ * have no arrays until copied into memory by `inMemory`.
+ */
+final class FollowGraph {
+  // The fewest people that `mostPopularFriend(ForkJoinPool)` counts in one task:
+  static final int MinGrain = 1024;
+
+  int[] offsets;
+  int[] targets;
+  HybridFollows hybrid = null;
+  GraphFile.Mapped mapped = null;
+
+  FollowGraph(int[] offsets, int[] targets) {
+    this.offsets = offsets;
+    this.targets = targets;
+  }
+
+  /**
+   * This graph, counting friends with bitsets wherever follows or followers are dense among nearby
+   * ids (see `HybridFollows`).
+   */
+  FollowGraph withBitsets() {
+    FollowGraph memory = inMemory();
+    FollowGraph graph = new FollowGraph(memory.offsets, memory.targets);
+    graph.hybrid = new HybridFollows(graph);
+    return graph;
+  }
+
+  static FollowGraph mapped(GraphFile.Mapped mapped) {
+    FollowGraph graph = new FollowGraph(null, null);
+    graph.mapped = mapped;
+    return graph;
+  }
+
+  /**
+   * This graph with its offsets and targets in arrays, copying them if it is mapped.
+   */
+  FollowGraph inMemory() {
+    if (mapped == null) return this;
+
+    int size = size();
+    long follows = start(size);
+    if (follows > Integer.MAX_VALUE - 8) throw new IllegalStateException("A graph of " + follows + " follows does not fit in memory");
+    int[] offsets = new int[size + 1];
+    int[] targets = new int[(int) follows];
+    for (int id = 0; id <= size; id++) offsets[id] = (int) start(id);
+    for (int i = 0; i < targets.length; i++) targets[i] = mapped.target(i);
+    return new FollowGraph(offsets, targets);
+  }
+
+  /**
+   * Builds the graph of `people`, where person `id` must be at index `id`.
+   */
+  static FollowGraph of(List<Person> people) {
+    int size = people.size();
+    int[] offsets = new int[size + 1];
+    for (int id = 0; id < size; id++) {
+      Person person = people.get(id);
+      if (person.id != id) throw new IllegalArgumentException("Person " + person.id + " is at index " + id);
+      offsets[id + 1] = Math.addExact(offsets[id], person.follows.size());
+    }
+
+    int[] targets = new int[offsets[size]];
+    for (int id = 0; id < size; id++) {
+      int at = offsets[id];
+      for (int target : people.get(id).follows) {
+        if (target < 0 || target >= size) throw new IllegalArgumentException("Person " + id + " follows unknown person " + target);
+        targets[at++] = target;
+      }
+      Arrays.sort(targets, offsets[id], at);
+    }
+    return new FollowGraph(offsets, targets);
+  }
+
+  int size() {
+    return mapped != null ? mapped.people : offsets.length - 1;
+  }
+
+  // Where the follows of `id` start among all targets:
+  long start(int id) {
+    return mapped != null ? mapped.start(id) : offsets[id];
+  }
+
+  int degree(int id) {
+    return (int) (start(id + 1) - start(id));
+  }
+
+  /**
+   * The people that `id` follows, in order of id.
+   */
+  int[] followsOf(int id) {
+    if (mapped == null) return Arrays.copyOfRange(targets, offsets[id], offsets[id + 1]);
+
+    int[] follows = new int[degree(id)];
+    long start = start(id);
+    for (int i = 0; i < follows.length; i++) follows[i] = mapped.target(start + i);
+    return follows;
+  }
+
+  boolean follows(int from, int to) {
+    if (mapped != null) return mapped.follows(from, to);
+    return Arrays.binarySearch(targets, offsets[from], offsets[from + 1], to) >= 0;
+  }
+
+  /**
+   * The number of follows of `id` that are followed back, counting repeated follows each time.
+   */
+  int friendCount(int id) {
+    if (hybrid != null) return hybrid.friendCount(id);
+    if (mapped != null) return mapped.friendCount(id);
+
+    int count = 0;
+    boolean friend = false;
+    for (int i = offsets[id], end = offsets[id + 1]; i < end; i++) {
+      // Targets are sorted, so repeated follows are adjacent and need only one search:
+      if (i == offsets[id] || targets[i] != targets[i - 1]) friend = follows(targets[i], id);
+      if (friend) count++;
+    }
+    return count;
+  }
+
+  /**
+   * The person with the most friends, the first such person on ties, or -1 for no people.
+   */
+  int mostPopularFriend() {
+    return personOf(best(0, size()));
+  }
+
+  /**
+   * Like `mostPopularFriend`, but counting ranges of people on the workers of `pool`.
+   */
+  int mostPopularFriend(ForkJoinPool pool) {
+    // Several ranges per worker, so that workers which draw people with many follows are balanced by stealing:
+    int grain = Math.max(MinGrain, size() / (8 * pool.getParallelism()));
+    return personOf(pool.invoke(new MostPopular(this, 0, size(), grain)));
+  }
+
+  // The best person of `[from, to)` packed into a long, which orders by count and then by lowest id, or -1 for none:
+  long best(int from, int to) {
+    long best = -1;
+    for (int id = from; id < to; id++) best = Math.max(best, ((long) friendCount(id) << 32) | (0xFFFFFFFFL - id));
+    return best;
+  }
+
+  static int personOf(long best) {
+    return best < 0 ? -1 : (int) (0xFFFFFFFFL - (best & 0xFFFFFFFFL));
+  }
+
+  static final class MostPopular extends RecursiveTask<Long> {
+    private static final long serialVersionUID = 1L;
+
+    FollowGraph graph;
+    int from;
+    int to;
+    int grain;
+
+    MostPopular(FollowGraph graph, int from, int to, int grain) {
+      this.graph = graph;
+      this.from = from;
+      this.to = to;
+      this.grain = grain;
+    }
+
+    protected Long compute() {
+      if (to - from <= grain) return graph.best(from, to);
+
+      int middle = (from + to) >>> 1;
+      MostPopular right = new MostPopular(graph, middle, to, grain);
+      right.fork();
+      long left = new MostPopular(graph, from, middle, grain).compute();
+      return Math.max(left, right.join());
+    }
+  }
+}
@@ -0,0 +1,160 @@
+package net.degoes.algorithms;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * An on-disk format for the follow graph of a `SocialNetwork`, designed to be memory-mapped.
+ *
+ * All numbers are little-endian. The file starts with a 64-byte header:
+ *
+ *   int   magic ("SGPH")        int   version
+ *   long  people                long  follows
+ *   long  offsets position      long  targets position
+ *
+ * followed by the sections of `FollowGraph`, each starting on a 64-byte boundary: `people + 1`
+ * long offsets, then `follows` int targets, sorted per person. Offsets are longs, so that graphs
+ * may have more follows than an `int[]` can hold.
+ *
+ * `open` maps both sections read-only and queries them in place: nothing is deserialized, pages
+ * are read from disk as queries touch them, and every process that opens the same file shares
+ * one copy of it in the page cache. Only the header and the first and last offsets are checked
+ * when opening. Names and ages are not stored, so opened networks have follows only. A file must
+ * not be rewritten while a network opened from it is in use.
+ */
+final class GraphFile {
+  static final int Magic     = 0x48504753;
+  static final int Version   = 1;
+  static final int Alignment = 64;
+
+  static final int HeaderBytes = 64;
+  // One mapping is limited to 2 GB, so sections are mapped in pages of 1 GB:
+  static final int PageBits = 30;
+
+  public static void write(SocialNetwork network, Path path) throws IOException {
+    FollowGraph graph = network.graph;
+    int people = graph.size();
+    long follows = graph.start(people);
+    long offsetsPosition = HeaderBytes;
+    long targetsPosition = align(offsetsPosition + 8L * (people + 1));
+
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+      ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 16).order(ByteOrder.LITTLE_ENDIAN);
+      buffer.putInt(Magic).putInt(Version).putLong(people).putLong(follows).putLong(offsetsPosition).putLong(targetsPosition);
+      buffer.position(HeaderBytes);
+
+      for (int id = 0; id <= people; id++) {
+        if (buffer.remaining() < 8) flush(channel, buffer);
+        buffer.putLong(graph.start(id));
+      }
+      while (buffer.position() % Alignment != 0) buffer.put((byte) 0);
+      for (int id = 0; id < people; id++) {
+        for (int target : graph.followsOf(id)) {
+          if (buffer.remaining() < 4) flush(channel, buffer);
+          buffer.putInt(target);
+        }
+      }
+      flush(channel, buffer);
+    }
+  }
+
+  public static SocialNetwork open(Path path) throws IOException {
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+      ByteBuffer header = ByteBuffer.allocate(HeaderBytes).order(ByteOrder.LITTLE_ENDIAN);
+      while (header.hasRemaining()) {
+        if (channel.read(header) < 0) throw new IOException("Truncated graph file: " + path);
+      }
+      header.flip();
+      if (header.getInt() != Magic) throw new IOException("Not a graph file: " + path);
+      int version = header.getInt();
+      if (version != Version) throw new IOException("Unsupported graph file version " + version + ": " + path);
+      long people = header.getLong();
+      long follows = header.getLong();
+      long offsetsPosition = header.getLong();
+      long targetsPosition = header.getLong();
+      if (people < 0 || people >= Integer.MAX_VALUE || follows < 0) throw new IOException("Corrupt graph file header: " + path);
+      if (offsetsPosition + 8 * (people + 1) > targetsPosition || targetsPosition + 4 * follows > channel.size()) throw new IOException("Truncated graph file: " + path);
+
+      Mapped mapped = new Mapped((int) people, map(channel, offsetsPosition, 8 * (people + 1)), map(channel, targetsPosition, 4 * follows));
+      if (mapped.start(0) != 0 || mapped.start((int) people) != follows) throw new IOException("Corrupt graph file offsets: " + path);
+
+      // Mappings stay valid after the channel is closed.
+      return new SocialNetwork(null, FollowGraph.mapped(mapped));
+    }
+  }
+
+  static long align(long position) {
+    return (position + Alignment - 1) & -Alignment;
+  }
+
+  private static void flush(FileChannel channel, ByteBuffer buffer) throws IOException {
+    buffer.flip();
+    while (buffer.hasRemaining()) channel.write(buffer);
+    buffer.clear();
+  }
+
+  private static ByteBuffer[] map(FileChannel channel, long position, long length) throws IOException {
+    ByteBuffer[] pages = new ByteBuffer[(int) ((length + (1L << PageBits) - 1) >>> PageBits)];
+    for (int p = 0; p < pages.length; p++) {
+      long offset = (long) p << PageBits;
+      pages[p] = channel.map(FileChannel.MapMode.READ_ONLY, position + offset, Math.min(1L << PageBits, length - offset)).order(ByteOrder.LITTLE_ENDIAN);
+    }
+    return pages;
+  }
+
+  /**
+   * The sections of an opened graph file. Pages hold whole numbers of offsets and targets, so
+   * none straddles two pages.
+   */
+  static final class Mapped {
+    int people;
+    ByteBuffer[] offsets;
+    ByteBuffer[] targets;
+
+    Mapped(int people, ByteBuffer[] offsets, ByteBuffer[] targets) {
+      this.people = people;
+      this.offsets = offsets;
+      this.targets = targets;
+    }
+
+    long start(int id) {
+      long position = 8L * id;
+      return offsets[(int) (position >>> PageBits)].getLong((int) (position & ((1 << PageBits) - 1)));
+    }
+
+    int target(long i) {
+      long position = 4L * i;
+      return targets[(int) (position >>> PageBits)].getInt((int) (position & ((1 << PageBits) - 1)));
+    }
+
+    boolean follows(int from, int to) {
+      long low = start(from), high = start(from + 1) - 1;
+      while (low <= high) {
+        long middle = (low + high) >>> 1;
+        int target = target(middle);
+        if (target < to) low = middle + 1;
+        else if (target > to) high = middle - 1;
+        else return true;
+      }
+      return false;
+    }
+
+    int friendCount(int id) {
+      int count = 0;
+      boolean friend = false;
+      long start = start(id), end = start(id + 1);
+      int previous = -1;
+      for (long i = start; i < end; i++) {
+        int target = target(i);
+        if (i == start || target != previous) friend = follows(target, id);
+        if (friend) count++;
+        previous = target;
+      }
+      return count;
+    }
+  }
+}
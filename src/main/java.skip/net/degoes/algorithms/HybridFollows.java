@@ -0,0 +1,213 @@
+package net.degoes.algorithms;
+
+import java.util.Arrays;
+
+/**
+ * The follows of a `FollowGraph`, and the followers of every person, split as roaring bitmaps are
+ * into containers of `1 << ContainerBits` consecutive ids. Each person keeps, per container, either
+ * their sorted list of ids in it or a bitset over it, whichever is smaller. Density is judged per
+ * container rather than over all ids, so a close community within a large network gets bitsets
+ * although each of its members follows only a small part of the network.
+ *
+ * Friends are the intersection of someone's follows with their followers, taken container by
+ * container. Where both are bitsets, the intersection is counted a word of 64 people at a time with
+ * `Long.bitCount`. A bitset meets a list by one bit test per listed id, and two lists meet by a
+ * sorted merge. People who follow someone more than once count them once per follow, as everywhere
+ * in `SocialNetwork`; bitsets cannot hold that, so repeated follows within follow bitsets are
+ * listed apart.
+ */
+final class HybridFollows {
+  // Smaller than the 65536 ids of a roaring container, so that communities of a few thousand
+  // people are dense enough for bitsets:
+  static final int ContainerBits  = 12;
+  static final int ContainerWords = (1 << ContainerBits) >>> 6;
+
+  FollowGraph graph;
+  // Followers of every person without repetition, in compressed sparse row form like `FollowGraph`:
+  int[] followerOffsets;
+  int[] followers;
+  // The dense containers of the follows and followers of every person, ascending, or null for
+  // people with none, and their bitsets of `ContainerWords` words each, in the same order:
+  int[][] followContainers;
+  long[][] followBits;
+  int[][] followerContainers;
+  long[][] followerBits;
+  // The follows within dense containers that repeat an earlier follow, once per repetition:
+  int[][] repeats;
+
+  HybridFollows(FollowGraph graph) {
+    int size = graph.size();
+    this.graph = graph;
+    this.followContainers = new int[size][];
+    this.followBits = new long[size][];
+    this.followerContainers = new int[size][];
+    this.followerBits = new long[size][];
+    this.repeats = new int[size][];
+
+    // Count and then place followers, visiting followers in order of id so that every list is sorted:
+    this.followerOffsets = new int[size + 1];
+    for (int id = 0; id < size; id++) {
+      for (int i = graph.offsets[id]; i < graph.offsets[id + 1]; i++) {
+        if (!repeated(graph.targets, i, graph.offsets[id])) followerOffsets[graph.targets[i] + 1]++;
+      }
+    }
+    for (int id = 0; id < size; id++) followerOffsets[id + 1] += followerOffsets[id];
+    this.followers = new int[followerOffsets[size]];
+    int[] at = new int[size];
+    for (int id = 0; id < size; id++) {
+      for (int i = graph.offsets[id]; i < graph.offsets[id + 1]; i++) {
+        int target = graph.targets[i];
+        if (!repeated(graph.targets, i, graph.offsets[id])) followers[followerOffsets[target] + at[target]++] = id;
+      }
+    }
+
+    for (int id = 0; id < size; id++) {
+      encode(graph.targets, graph.offsets[id], graph.offsets[id + 1], id, followContainers, followBits);
+      encode(followers, followerOffsets[id], followerOffsets[id + 1], id, followerContainers, followerBits);
+      if (followContainers[id] != null) repeats[id] = repeats(id);
+    }
+  }
+
+  // A bitset of a container is no larger than a list of `ids` ints when it has at least two ids per word:
+  static boolean dense(int ids) {
+    return ids >= 2 * ContainerWords;
+  }
+
+  // Whether `ids[i]` of the list starting at `start` repeats the one before it, which lists keep adjacent:
+  private static boolean repeated(int[] ids, int i, int start) {
+    return i > start && ids[i] == ids[i - 1];
+  }
+
+  // The first index of `[from, to)` of the sorted `ids` whose container is at least `container`:
+  private static int seek(int[] ids, int from, int to, int container) {
+    int low = from, high = to;
+    while (low < high) {
+      int middle = (low + high) >>> 1;
+      if (ids[middle] >>> ContainerBits < container) low = middle + 1;
+      else high = middle;
+    }
+    return low;
+  }
+
+  // Sets `containers[id]` and `bits[id]` to the dense containers of the sorted `ids[from, to)`,
+  // judging density by distinct ids:
+  private static void encode(int[] ids, int from, int to, int id, int[][] containers, long[][] bits) {
+    int count = 0;
+    for (int i = from, end; i < to; i = end) {
+      end = seek(ids, i, to, (ids[i] >>> ContainerBits) + 1);
+      if (dense(distinct(ids, i, end))) count++;
+    }
+    if (count == 0) return;
+
+    int[] dense = new int[count];
+    long[] words = new long[count * ContainerWords];
+    int k = 0;
+    for (int i = from, end; i < to; i = end) {
+      int container = ids[i] >>> ContainerBits;
+      end = seek(ids, i, to, container + 1);
+      if (!dense(distinct(ids, i, end))) continue;
+
+      dense[k] = container;
+      for (int j = i; j < end; j++) words[k * ContainerWords + ((ids[j] >>> 6) & (ContainerWords - 1))] |= 1L << ids[j];
+      k++;
+    }
+    containers[id] = dense;
+    bits[id] = words;
+  }
+
+  private static int distinct(int[] ids, int from, int to) {
+    int count = 0;
+    for (int i = from; i < to; i++) if (!repeated(ids, i, from)) count++;
+    return count;
+  }
+
+  private int[] repeats(int id) {
+    int[] targets = graph.targets, dense = followContainers[id];
+    int start = graph.offsets[id], end = graph.offsets[id + 1];
+    int count = 0;
+    for (int i = start, k = 0; i < end; i++) {
+      int container = targets[i] >>> ContainerBits;
+      while (k < dense.length && dense[k] < container) k++;
+      if (k < dense.length && dense[k] == container && repeated(targets, i, start)) count++;
+    }
+
+    int[] result = new int[count];
+    count = 0;
+    for (int i = start, k = 0; i < end; i++) {
+      int container = targets[i] >>> ContainerBits;
+      while (k < dense.length && dense[k] < container) k++;
+      if (k < dense.length && dense[k] == container && repeated(targets, i, start)) result[count++] = targets[i];
+    }
+    return result;
+  }
+
+  /**
+   * The number of follows of `id` that are followed back, as `FollowGraph.friendCount` counts them.
+   */
+  int friendCount(int id) {
+    int[] targets = graph.targets;
+    int i = graph.offsets[id], followsEnd = graph.offsets[id + 1];
+    int j = followerOffsets[id], followersEnd = followerOffsets[id + 1];
+    int[] follows = followContainers[id], followedBy = followerContainers[id];
+    if (follows == null && followedBy == null) return merge(targets, i, followsEnd, followers, j, followersEnd);
+
+    int count = 0;
+    int f = 0, g = 0;
+    while (i < followsEnd && j < followersEnd) {
+      // Skip to the next container that holds both a follow and a follower:
+      int container = Math.max(targets[i], followers[j]) >>> ContainerBits;
+      i = seek(targets, i, followsEnd, container);
+      j = seek(followers, j, followersEnd, container);
+      if (i == followsEnd || j == followersEnd) break;
+      if (targets[i] >>> ContainerBits != container || followers[j] >>> ContainerBits != container) continue;
+
+      int nextI = seek(targets, i, followsEnd, container + 1);
+      int nextJ = seek(followers, j, followersEnd, container + 1);
+      while (follows != null && f < follows.length && follows[f] < container) f++;
+      while (followedBy != null && g < followedBy.length && followedBy[g] < container) g++;
+      boolean denseFollows = follows != null && f < follows.length && follows[f] == container;
+      boolean denseFollowers = followedBy != null && g < followedBy.length && followedBy[g] == container;
+
+      if (denseFollows && denseFollowers) {
+        long[] a = followBits[id], b = followerBits[id];
+        int x = f * ContainerWords, y = g * ContainerWords;
+        for (int w = 0; w < ContainerWords; w++) count += Long.bitCount(a[x + w] & b[y + w]);
+      } else if (denseFollows) {
+        for (int k = j; k < nextJ; k++) count += test(followBits[id], f, followers[k]);
+      } else if (denseFollowers) {
+        for (int k = i; k < nextI; k++) count += test(followerBits[id], g, targets[k]);
+      } else {
+        count += merge(targets, i, nextI, followers, j, nextJ);
+      }
+      i = nextI;
+      j = nextJ;
+    }
+
+    // Follow bitsets counted each repeated follow once:
+    if (repeats[id] != null) for (int target : repeats[id]) if (followedBy(id, target)) count++;
+    return count;
+  }
+
+  // 1 if `person` is in the `k`th bitset of `bits`, and 0 otherwise:
+  private static int test(long[] bits, int k, int person) {
+    return (int) (bits[k * ContainerWords + ((person >>> 6) & (ContainerWords - 1))] >>> person) & 1;
+  }
+
+  // The follows in `targets[i, iEnd)` that are among the followers in `followers[j, jEnd)`, once per follow:
+  private static int merge(int[] targets, int i, int iEnd, int[] followers, int j, int jEnd) {
+    // Both lists are sorted; repeated follows meet the same follower again, so count once per follow:
+    int count = 0;
+    for (; i < iEnd && j < jEnd; i++) {
+      while (j < jEnd && followers[j] < targets[i]) j++;
+      if (j < jEnd && followers[j] == targets[i]) count++;
+    }
+    return count;
+  }
+
+  private boolean followedBy(int id, int follower) {
+    int[] dense = followerContainers[id];
+    int k = dense == null ? -1 : Arrays.binarySearch(dense, follower >>> ContainerBits);
+    if (k >= 0) return test(followerBits[id], k, follower) != 0;
+    return Arrays.binarySearch(followers, followerOffsets[id], followerOffsets[id + 1], follower) >= 0;
+  }
+}
@@ -0,0 +1,241 @@
+package net.degoes.algorithms;
+
+import java.util.Arrays;
+import java.util.Optional;
+
+/**
+ * A social network that changes by single follows and unfollows, keeping the friend count of
+ * every person up to date as it does, so that the most popular friend is always at hand rather
+ * than recomputed from the whole network.
+ *
+ * Follows are counted with their multiplicity, as in `SocialNetwork`: the friends of a person are
+ * their follows that are followed back, and following someone twice counts twice. A follow from
+ * `a` to `b` therefore changes only the counts of `a` and `b`, which is what makes updates cheap.
+ * Counts live in an indexed max-heap ordered by count and then by lowest id, so the most popular
+ * friend is its root, and every update is a hash lookup plus O(log n) heap moves.
+ */
+final class MutableSocialNetwork {
+  FollowCounts follows;
+  int[] counts;
+  // `heap` holds person ids in heap order; `positions[id]` is where `id` is in `heap`:
+  int[] heap;
+  int[] positions;
+
+  MutableSocialNetwork(int people) {
+    this.follows = new FollowCounts(16);
+    this.counts = new int[people];
+    this.heap = new int[people];
+    this.positions = new int[people];
+    for (int id = 0; id < people; id++) heap[id] = positions[id] = id;
+  }
+
+  /**
+   * A mutable copy of `network`, whose friend counts are computed once, from its follow graph.
+   */
+  static MutableSocialNetwork from(SocialNetwork network) {
+    FollowGraph graph = network.graph.inMemory();
+    MutableSocialNetwork mutable = new MutableSocialNetwork(graph.size());
+    mutable.follows = new FollowCounts(graph.targets.length);
+    for (int id = 0; id < graph.size(); id++) {
+      for (int i = graph.offsets[id]; i < graph.offsets[id + 1]; i++) mutable.follows.add(key(id, graph.targets[i]), 1);
+      mutable.counts[id] = graph.friendCount(id);
+    }
+    for (int i = graph.size() / 2 - 1; i >= 0; i--) mutable.siftDown(i);
+    return mutable;
+  }
+
+  int size() {
+    return counts.length;
+  }
+
+  boolean follows(int from, int to) {
+    return follows.get(key(from, to)) > 0;
+  }
+
+  int friendCount(int id) {
+    return counts[id];
+  }
+
+  /**
+   * Records one more follow of `to` by `from`.
+   */
+  void follow(int from, int to) {
+    check(from);
+    check(to);
+    int before = follows.add(key(from, to), 1);
+    if (from == to) {
+      // A person who follows themselves is their own friend once per follow:
+      change(from, 1);
+      return;
+    }
+
+    int back = follows.get(key(to, from));
+    if (back > 0) change(from, 1);
+    // The first follow of `to` makes friends of all the follows of `from` by `to`:
+    if (before == 0 && back > 0) change(to, back);
+  }
+
+  /**
+   * Removes one follow of `to` by `from`, returning whether there was one to remove.
+   */
+  boolean unfollow(int from, int to) {
+    check(from);
+    check(to);
+    if (follows.get(key(from, to)) == 0) return false;
+
+    int after = follows.add(key(from, to), -1) - 1;
+    if (from == to) {
+      change(from, -1);
+      return true;
+    }
+
+    int back = follows.get(key(to, from));
+    if (back > 0) change(from, -1);
+    if (after == 0 && back > 0) change(to, -back);
+    return true;
+  }
+
+  /**
+   * The person with the most friends, the first such person on ties, as `SocialNetwork` finds.
+   */
+  public Optional<Integer> findMostPopularFriend() {
+    return heap.length == 0 ? Optional.empty() : Optional.of(heap[0]);
+  }
+
+  private void check(int id) {
+    if (id < 0 || id >= counts.length) throw new IllegalArgumentException("Unknown person " + id);
+  }
+
+  private void change(int id, int delta) {
+    counts[id] += delta;
+    if (delta > 0) siftUp(positions[id]);
+    else siftDown(positions[id]);
+  }
+
+  // Whether the person at heap index `i` is more popular than the one at `j`:
+  private boolean above(int i, int j) {
+    int a = heap[i], b = heap[j];
+    return counts[a] > counts[b] || (counts[a] == counts[b] && a < b);
+  }
+
+  private void siftUp(int i) {
+    while (i > 0) {
+      int parent = (i - 1) >>> 1;
+      if (!above(i, parent)) return;
+      swap(i, parent);
+      i = parent;
+    }
+  }
+
+  private void siftDown(int i) {
+    while (true) {
+      int child = 2 * i + 1;
+      if (child >= heap.length) return;
+      if (child + 1 < heap.length && above(child + 1, child)) child++;
+      if (!above(child, i)) return;
+      swap(i, child);
+      i = child;
+    }
+  }
+
+  private void swap(int i, int j) {
+    int a = heap[i], b = heap[j];
+    heap[i] = b;
+    heap[j] = a;
+    positions[b] = i;
+    positions[a] = j;
+  }
+
+  static long key(int from, int to) {
+    return ((long) from << 32) | (to & 0xFFFFFFFFL);
+  }
+
+  /**
+   * The number of follows of every (from, to) pair that has any, in an open-addressing table of
+   * primitive keys, so that updates neither box nor allocate. Pairs whose count drops to zero are
+   * removed, shifting back the entries probed past them, so tables never fill with tombstones.
+   */
+  static final class FollowCounts {
+    static final long Empty = -1;
+
+    long[] keys;
+    int[] values;
+    int size = 0;
+
+    FollowCounts(int expected) {
+      int capacity = Integer.highestOneBit(Math.max(16, expected * 2 - 1)) << 1;
+      this.keys = new long[capacity];
+      this.values = new int[capacity];
+      Arrays.fill(keys, Empty);
+    }
+
+    int get(long key) {
+      int mask = keys.length - 1;
+      for (int slot = hash(key) & mask; keys[slot] != Empty; slot = (slot + 1) & mask) {
+        if (keys[slot] == key) return values[slot];
+      }
+      return 0;
+    }
+
+    /**
+     * Adds `delta` to the count of `key`, returning the count before.
+     */
+    int add(long key, int delta) {
+      int mask = keys.length - 1;
+      int slot = hash(key) & mask;
+      while (keys[slot] != Empty && keys[slot] != key) slot = (slot + 1) & mask;
+
+      int before = keys[slot] == key ? values[slot] : 0;
+      int after = before + delta;
+      if (after == 0) {
+        if (before != 0) remove(slot);
+      } else if (before == 0) {
+        keys[slot] = key;
+        values[slot] = after;
+        if (++size * 2 > keys.length) grow();
+      } else {
+        values[slot] = after;
+      }
+      return before;
+    }
+
+    private void remove(int slot) {
+      int mask = keys.length - 1;
+      size--;
+      // Move back every later entry of the run whose home slot is not between the hole and it:
+      for (int next = (slot + 1) & mask; keys[next] != Empty; next = (next + 1) & mask) {
+        int home = hash(keys[next]) & mask;
+        if (((next - home) & mask) >= ((next - slot) & mask)) {
+          keys[slot] = keys[next];
+          values[slot] = values[next];
+          slot = next;
+        }
+      }
+      keys[slot] = Empty;
+      values[slot] = 0;
+    }
+
+    private void grow() {
+      long[] oldKeys = keys;
+      int[] oldValues = values;
+      keys = new long[oldKeys.length * 2];
+      values = new int[oldKeys.length * 2];
+      Arrays.fill(keys, Empty);
+      int mask = keys.length - 1;
+      for (int i = 0; i < oldKeys.length; i++) {
+        if (oldKeys[i] == Empty) continue;
+        int slot = hash(oldKeys[i]) & mask;
+        while (keys[slot] != Empty) slot = (slot + 1) & mask;
+        keys[slot] = oldKeys[i];
+        values[slot] = oldValues[i];
+      }
+    }
+
+    static int hash(long key) {
+      // The finalizer of MurmurHash3, so that both ids affect every bit of the slot:
+      key = (key ^ (key >>> 33)) * 0xFF51AFD7ED558CCDL;
+      key = (key ^ (key >>> 33)) * 0xC4CEB9FE1A85EC53L;
+      return (int) (key ^ (key >>> 33));
+    }
+  }
+}
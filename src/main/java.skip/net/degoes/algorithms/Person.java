@@ -0,0 +1,17 @@
+package net.degoes.algorithms;
+
+import java.util.List;
+
+final class Person {
+  int id;
+  int age;
+  String name;
+  List<Integer> follows;
+
+  public Person(int id, int age, String name, List<Integer> follows) {
+    this.id = id;
+    this.age = age;
+    this.name = name;
+    this.follows = follows;
+  }
+}
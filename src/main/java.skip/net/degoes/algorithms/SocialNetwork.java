@@ -0,0 +1,89 @@
+package net.degoes.algorithms;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+final class SocialNetwork {
+  // The people of the network, or null for networks opened from a file (see `GraphFile`), which only have follows:
+  List<Person> people;
+  FollowGraph graph;
+
+  public SocialNetwork(List<Person> people) {
+    this(people, FollowGraph.of(people));
+  }
+
+  SocialNetwork(List<Person> people, FollowGraph graph) {
+    this.people = people;
+    this.graph = graph;
+  }
+
+  /**
+   * This network, keeping the follows and followers of people as bitsets wherever they are dense
+   * among nearby ids (see `HybridFollows`), so that counting their friends there takes
+   * word-parallel operations rather than searches.
+   */
+  public SocialNetwork withBitsets() {
+    return new SocialNetwork(people, graph.withBitsets());
+  }
+
+  List<Integer> getFriendsOf(int id) {
+    // Retrieve all the people that $id follows, from the graph, which networks opened from a file have without people:
+    int[] follows = graph.followsOf(id);
+
+    // Return only the people that follow $id back ("friends"):
+    return IntStream.of(follows).filter(candidateId ->
+      graph.follows(candidateId, id)
+    ).boxed().collect(Collectors.toList());
+  }
+
+  public Optional<Integer> findMostPopularFriend() {
+    // Counting friends needs no lists: the follow graph counts them in place, however it is stored.
+    int mostPopular = graph.mostPopularFriend();
+
+    return mostPopular < 0 ? Optional.empty() : Optional.of(mostPopular);
+  }
+
+  /**
+   * Like `findMostPopularFriend`, but counting friends in parallel on `pool`, with the same result.
+   */
+  public Optional<Integer> findMostPopularFriend(ForkJoinPool pool) {
+    int mostPopular = graph.mostPopularFriend(pool);
+
+    return mostPopular < 0 ? Optional.empty() : Optional.of(mostPopular);
+  }
+  
+  // Deterministic RNG:
+  private static Random rng = new Random(0L);
+
+  public static SocialNetwork random(int people, int friendsPerPerson) {
+    List<Person> members = IntStream.range(0, people).boxed().map(id -> {
+      var friends = IntStream.range(0, friendsPerPerson).map(x -> rng.nextInt(people)).boxed().collect(Collectors.toList());
+
+      return new Person(id, rng.nextInt(100), "Person "+id, friends);
+    }).collect(Collectors.toList());
+
+    return new SocialNetwork(members);
+  }
+
+  /**
+   * Like `random`, but the first `community` people also follow every other one of them, as a
+   * close community within a large network does.
+   */
+  public static SocialNetwork random(int people, int friendsPerPerson, int community) {
+    int members = Math.min(community, people);
+    List<Person> everyone = random(people, friendsPerPerson).people.stream().map(person -> {
+      if (person.id >= members) return person;
+
+      List<Integer> follows = new ArrayList<>(person.follows);
+      for (int other = 0; other < members; other++) if (other != person.id) follows.add(other);
+      return new Person(person.id, person.age, person.name, follows);
+    }).collect(Collectors.toList());
+
+    return new SocialNetwork(everyone);
+  }
+}
@@ -0,0 +1,76 @@
+package net.degoes.project;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import java.util.concurrent.TimeUnit;
+import scala.util.Random;
+import net.degoes.project.dataset1.*;
+
+/**
+ * Measures the aggregates of `Dataset` over the columns of `ProjectBenchmark`: reductions of a
+ * plain integer column, of a decimal column (compensated summation), and of an expression that
+ * is reduced without being materialized.
+ */
+@State(Scope.Thread)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@BenchmarkMode({Mode.Throughput})
+@Warmup(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@Fork(1)
+@Threads(16)
+public class AggregateBenchmark {
+  @Param({"100", "1000", "10000"})
+  int size = 0;
+
+  Dataset dataset = null;
+
+  static Field start  = new Field("start");
+  static Field end    = new Field("end");
+  static Field netPay = new Field("netPay");
+  static Field rate   = new Field("rate");
+
+  @Setup
+  public void setup() {
+    Random rng = new Random(0L);
+
+    long[] starts    = new long[size];
+    long[] ends      = new long[size];
+    long[] netPays   = new long[size];
+    double[] rates   = new double[size];
+    int i = 0;
+    while (i < size) {
+      starts[i]  = rng.between(0, 360);
+      ends[i]    = rng.between((int) starts[i], 360);
+      netPays[i] = rng.between(20000, 60000);
+      rates[i]   = netPays[i] / 2080.0;
+      i = i + 1;
+    }
+
+    dataset = Dataset.of(start, starts).with(Dataset.of(end, ends)).with(Dataset.of(netPay, netPays)).with(Dataset.of(rate, rates));
+  }
+
+  @Benchmark
+  public void sum(Blackhole blackhole) {
+    blackhole.consume(dataset.sum(netPay));
+  }
+
+  @Benchmark
+  public void decimalSum(Blackhole blackhole) {
+    blackhole.consume(dataset.sum(rate));
+  }
+
+  @Benchmark
+  public void mean(Blackhole blackhole) {
+    blackhole.consume(dataset.mean(netPay));
+  }
+
+  @Benchmark
+  public void max(Blackhole blackhole) {
+    blackhole.consume(dataset.max(netPay));
+  }
+
+  @Benchmark
+  public void expressionSum(Blackhole blackhole) {
+    blackhole.consume(dataset.apply(end).minus(dataset.apply(start)).sum());
+  }
+}
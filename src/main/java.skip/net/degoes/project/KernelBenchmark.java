@@ -0,0 +1,67 @@
+package net.degoes.project;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import java.util.concurrent.TimeUnit;
+import scala.util.Random;
+import net.degoes.project.dataset1.*;
+
+/**
+ * Compares the arithmetic kernels that `Execution.withKernels` selects: the scalar loops, the
+ * Vector API kernels, and the compiled loop that datasets otherwise fall back to. Sizes start at
+ * `Compiler.MinRows`, below which no loop is compiled and "compiled" would measure the interpreter.
+ */
+@State(Scope.Thread)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@BenchmarkMode({Mode.Throughput})
+@Warmup(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@Fork(value = 1, jvmArgsAppend = {"--add-modules", "jdk.incubator.vector"})
+@Threads(16)
+public class KernelBenchmark {
+  @Param({"1024", "10000", "100000"})
+  int size = 0;
+
+  @Param({"scalar", "vector", "compiled"})
+  String kernels = "";
+
+  Dataset start = null;
+  Dataset end = null;
+  Dataset rate = null;
+
+  @Setup
+  public void setup() {
+    Random rng = new Random(0L);
+
+    long[] starts  = new long[size];
+    long[] ends    = new long[size];
+    double[] rates = new double[size];
+    int i = 0;
+    while (i < size) {
+      starts[i] = rng.between(0, 360);
+      ends[i]   = rng.between((int) starts[i], 360);
+      rates[i]  = rng.between(20000, 60000) / 2080.0;
+      i = i + 1;
+    }
+
+    Execution execution = Execution.Sequential.withKernels(kernels);
+    start = Dataset.of(new Field("start"), starts).withExecution(execution);
+    end   = Dataset.of(new Field("end"), ends).withExecution(execution);
+    rate  = Dataset.of(new Field("rate"), rates).withExecution(execution);
+  }
+
+  @Benchmark
+  public void longPlusLong(Blackhole blackhole) {
+    blackhole.consume(start.plus(end).materialize());
+  }
+
+  @Benchmark
+  public void longTimesDouble(Blackhole blackhole) {
+    blackhole.consume(end.times(rate).materialize());
+  }
+
+  @Benchmark
+  public void doubleDivideDouble(Blackhole blackhole) {
+    blackhole.consume(rate.divide(rate).materialize());
+  }
+}
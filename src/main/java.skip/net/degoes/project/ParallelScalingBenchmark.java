@@ -0,0 +1,64 @@
+package net.degoes.project;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import java.util.concurrent.TimeUnit;
+import scala.util.Random;
+import net.degoes.project.dataset1.*;
+
+/**
+ * Reports how the expression from `ProjectBenchmark.baseline` scales as the number of cores used
+ * to evaluate a single dataset grows. Runs on one benchmark thread, so that all parallelism
+ * comes from `Execution`.
+ */
+@State(Scope.Thread)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@BenchmarkMode({Mode.Throughput})
+@Warmup(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@Fork(1)
+@Threads(1)
+public class ParallelScalingBenchmark {
+  @Param({"1000000", "10000000"})
+  int size = 0;
+
+  @Param({"1", "2", "4", "8", "16"})
+  int parallelism = 0;
+
+  Dataset dataset = null;
+  Execution execution = null;
+
+  static Field start  = new Field("start");
+  static Field end    = new Field("end");
+  static Field netPay = new Field("netPay");
+
+  @Setup
+  public void setup() {
+    Random rng = new Random(0L);
+
+    long[] starts  = new long[size];
+    long[] ends    = new long[size];
+    long[] netPays = new long[size];
+    int i = 0;
+    while (i < size) {
+      starts[i]  = rng.between(0, 360);
+      ends[i]    = rng.between((int) starts[i], 360);
+      netPays[i] = rng.between(20000, 60000);
+      i = i + 1;
+    }
+
+    execution = parallelism == 1 ? Execution.Sequential : Execution.parallel(parallelism);
+    dataset = Dataset.of(start, starts).with(Dataset.of(end, ends)).with(Dataset.of(netPay, netPays)).withExecution(execution);
+  }
+
+  @TearDown
+  public void tearDown() {
+    execution.shutdown();
+  }
+
+  @Benchmark
+  public void baseline(Blackhole blackhole) {
+    var result = (dataset.apply(start).plus(dataset.apply(end))).divide(dataset.apply(netPay));
+    blackhole.consume(result.materialize());
+  }
+}
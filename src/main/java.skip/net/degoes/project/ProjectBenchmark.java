@@ -14,7 +14,7 @@ import zio.Chunk;
 @BenchmarkMode({Mode.Throughput})
 @Warmup(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
 @Measurement(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
-@Fork(1)
+@Fork(value = 1, jvmArgsAppend = {"--add-modules", "jdk.incubator.vector"})
 @Threads(16)
 public class ProjectBenchmark {
   @Param({"100", "1000", "10000"})
@@ -51,6 +51,6 @@ public class ProjectBenchmark {
   @Benchmark
   public void baseline(Blackhole blackhole) {
     var result = (benchmark1.dataset.apply(benchmark1.start).plus(benchmark1.dataset.apply(benchmark1.end))).divide(benchmark1.dataset.apply(benchmark1.netPay));
-    blackhole.consume(result);
+    blackhole.consume(result.materialize());
   }
 }
\ No newline at end of file
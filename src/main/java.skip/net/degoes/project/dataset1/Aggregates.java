@@ -0,0 +1,206 @@
+package net.degoes.project.dataset1;
+
+/**
+ * Reductions of one expression to a single value, computed with primitive accumulators straight
+ * from the columns: no cell is boxed, and no intermediate column is materialized.
+ *
+ * Every morsel reduces to a `Partial`, and partials are merged pairwise (see
+ * `Execution.reduceMorsels`). NA cells are skipped; an aggregate over no valid cells is NA.
+ * Decimal sums use Neumaier's compensated summation, so the error stays independent of the
+ * number of rows instead of growing with it.
+ */
+final class Aggregates {
+  static final class Partial {
+    long count;           // valid cells reduced
+    long longs;           // integer sum, min or max
+    double doubles;       // decimal sum, min or max
+    double compensation;  // low-order bits lost from the decimal sum
+  }
+
+  static Value sum(Expr expr, int size, Execution execution) {
+    return sum(sums(expr, size, execution), expr);
+  }
+
+  static Value mean(Expr expr, int size, Execution execution) {
+    return mean(sums(expr, size, execution), expr);
+  }
+
+  static Value min(Expr expr, int size, Execution execution) {
+    ColumnStats stats = expr != null && expr.isNumeric() ? stats(expr, size) : null;
+    if (stats != null) return stats.min();
+    return extremum(extrema(expr, size, execution, false), expr);
+  }
+
+  static Value max(Expr expr, int size, Execution execution) {
+    ColumnStats stats = expr != null && expr.isNumeric() ? stats(expr, size) : null;
+    if (stats != null) return stats.max();
+    return extremum(extrema(expr, size, execution, true), expr);
+  }
+
+  // The statistics of a plain column that has them already, which answer some aggregates without a pass:
+  private static ColumnStats stats(Expr expr, int size) {
+    if (!(expr instanceof Expr.Ref) || ((Expr.Ref) expr).column.size != size) return null;
+    return ((Expr.Ref) expr).column.stats;
+  }
+
+  /**
+   * The sum of `expr` as a partial, which `mergeSums` can combine with the sums of other rows,
+   * such as the other batches of a `ChunkedDataset`.
+   */
+  static Partial sums(Expr expr, int size, Execution execution) {
+    if (expr == null || !expr.isNumeric()) return new Partial();
+    return execution.reduceMorsels(size, (from, to) -> sum(expr, from, to), Aggregates::mergeSums);
+  }
+
+  static Partial extrema(Expr expr, int size, Execution execution, boolean max) {
+    if (expr == null || !expr.isNumeric()) return new Partial();
+
+    boolean integers = expr.type == Column.Type.INTEGER;
+    return execution.reduceMorsels(size,
+      (from, to) -> integers ? longExtremum(expr, from, to, max) : doubleExtremum(expr, from, to, max),
+      (left, right) -> mergeExtrema(left, right, integers, max)
+    );
+  }
+
+  // The value of a partial of `expr`; an expression of no valid cells (or none at all) is NA:
+  static Value sum(Partial sum, Expr expr) {
+    if (sum.count == 0) return Value.NA;
+    return expr.type == Column.Type.INTEGER ? new Value.Integer(sum.longs) : new Value.Decimal(sum.doubles + sum.compensation);
+  }
+
+  static Value mean(Partial sum, Expr expr) {
+    if (sum.count == 0) return Value.NA;
+    double total = expr.type == Column.Type.INTEGER ? sum.longs : sum.doubles + sum.compensation;
+    return new Value.Decimal(total / sum.count);
+  }
+
+  static Value extremum(Partial result, Expr expr) {
+    if (result.count == 0) return Value.NA;
+    return expr.type == Column.Type.INTEGER ? new Value.Integer(result.longs) : new Value.Decimal(result.doubles);
+  }
+
+  static long countValid(Expr expr, int size, Execution execution) {
+    if (expr == null) return 0;
+    if (!expr.nullable) return size;
+    ColumnStats stats = stats(expr, size);
+    if (stats != null) return size - stats.nullCount;
+
+    Partial count = execution.reduceMorsels(size, (from, to) -> {
+      Partial partial = new Partial();
+      for (int i = from; i < to; i++) {
+        if (expr.isValid(i)) partial.count++;
+      }
+      return partial;
+    }, (left, right) -> {
+      left.count += right.count;
+      return left;
+    });
+    return count.count;
+  }
+
+  private static Partial sum(Expr expr, int from, int to) {
+    return expr.type == Column.Type.INTEGER ? longSum(expr, from, to) : doubleSum(expr, from, to);
+  }
+
+  private static Partial longSum(Expr expr, int from, int to) {
+    Partial partial = new Partial();
+    long sum = 0;
+    if (expr.nullable) {
+      long count = 0;
+      for (int i = from; i < to; i++) {
+        if (expr.isValid(i)) {
+          sum += expr.getLong(i);
+          count++;
+        }
+      }
+      partial.count = count;
+    } else if (expr instanceof Expr.LongRef) {
+      // The common case of a plain column is a tight loop over the array, which C2 vectorizes:
+      long[] longs = ((Expr.LongRef) expr).longs;
+      for (int i = from; i < to; i++) sum += longs[i];
+      partial.count = to - from;
+    } else {
+      for (int i = from; i < to; i++) sum += expr.getLong(i);
+      partial.count = to - from;
+    }
+    partial.longs = sum;
+    return partial;
+  }
+
+  private static Partial doubleSum(Expr expr, int from, int to) {
+    Partial partial = new Partial();
+    double sum = 0;
+    double compensation = 0;
+    long count = 0;
+    double[] doubles = !expr.nullable && expr instanceof Expr.DoubleRef ? ((Expr.DoubleRef) expr).doubles : null;
+    for (int i = from; i < to; i++) {
+      if (doubles == null && expr.nullable && !expr.isValid(i)) continue;
+
+      double value = doubles != null ? doubles[i] : expr.getDouble(i);
+      double total = sum + value;
+      // Recover the bits of whichever operand was the smaller one:
+      if (Math.abs(sum) >= Math.abs(value)) compensation += (sum - total) + value;
+      else compensation += (value - total) + sum;
+      sum = total;
+      count++;
+    }
+    partial.count = count;
+    partial.doubles = sum;
+    partial.compensation = compensation;
+    return partial;
+  }
+
+  private static Partial longExtremum(Expr expr, int from, int to, boolean max) {
+    Partial partial = new Partial();
+    long result = max ? Long.MIN_VALUE : Long.MAX_VALUE;
+    long count = 0;
+    for (int i = from; i < to; i++) {
+      if (expr.nullable && !expr.isValid(i)) continue;
+
+      long value = expr.getLong(i);
+      result = max ? Math.max(result, value) : Math.min(result, value);
+      count++;
+    }
+    partial.count = count;
+    partial.longs = result;
+    return partial;
+  }
+
+  private static Partial doubleExtremum(Expr expr, int from, int to, boolean max) {
+    Partial partial = new Partial();
+    double result = max ? Double.NEGATIVE_INFINITY : Double.POSITIVE_INFINITY;
+    long count = 0;
+    for (int i = from; i < to; i++) {
+      if (expr.nullable && !expr.isValid(i)) continue;
+
+      double value = expr.getDouble(i);
+      result = max ? Math.max(result, value) : Math.min(result, value);
+      count++;
+    }
+    partial.count = count;
+    partial.doubles = result;
+    return partial;
+  }
+
+  static Partial mergeSums(Partial left, Partial right) {
+    left.count += right.count;
+    left.longs += right.longs;
+
+    double total = left.doubles + right.doubles;
+    if (Math.abs(left.doubles) >= Math.abs(right.doubles)) left.compensation += (left.doubles - total) + right.doubles;
+    else left.compensation += (right.doubles - total) + left.doubles;
+    left.compensation += right.compensation;
+    left.doubles = total;
+    return left;
+  }
+
+  static Partial mergeExtrema(Partial left, Partial right, boolean integers, boolean max) {
+    if (right.count == 0) return left;
+    if (left.count == 0) return right;
+
+    if (integers) left.longs = max ? Math.max(left.longs, right.longs) : Math.min(left.longs, right.longs);
+    else left.doubles = max ? Math.max(left.doubles, right.doubles) : Math.min(left.doubles, right.doubles);
+    left.count += right.count;
+    return left;
+  }
+}
@@ -0,0 +1,180 @@
+package net.degoes.project.dataset1;
+
+import java.util.ArrayList;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.function.UnaryOperator;
+
+/**
+ * A dataset that grows by appended rows, with derived columns and aggregates that are updated
+ * from the appended rows alone, so that refreshing them costs time in proportion to the new rows
+ * rather than to all of them.
+ *
+ * Rows are kept in growable columns (see `ColumnBuilder`). `snapshot` is an ordinary `Dataset` over
+ * the rows so far that shares those arrays without copying them; appends never change the rows
+ * a snapshot sees. Appends must not run concurrently with each other or with reads of snapshots.
+ *
+ * `derive` keeps a row-wise transformation, such as `ds -> ds.apply(end).minus(ds.apply(start))`,
+ * materialized: each append evaluates it on the new rows and appends the result. The aggregates
+ * (`sum`, `mean`, `min`, `max`, and those of `groupBy`) merge the partial aggregate of the new rows
+ * into their running state, exactly as the batches of a `ChunkedDataset` are merged.
+ */
+public final class AppendableDataset {
+  String[] names;
+  ColumnBuilder[] builders;
+  Execution execution;
+  boolean derived = false;
+  ArrayList<Consumer<Dataset>> listeners = new ArrayList<>();
+  Dataset snapshot = null;
+
+  AppendableDataset(Schema schema, Execution execution) {
+    this.names = schema.names.clone();
+    this.builders = new ColumnBuilder[names.length];
+    for (int c = 0; c < names.length; c++) builders[c] = new ColumnBuilder(schema.types[c], 0, new Dictionary());
+    this.execution = execution;
+  }
+
+  /**
+   * An empty dataset with the columns of `schema`.
+   */
+  public static AppendableDataset of(Schema schema) {
+    return new AppendableDataset(schema, Execution.Sequential);
+  }
+
+  /**
+   * A dataset starting with the rows of `dataset`, which are copied, and evaluating with its execution.
+   */
+  public static AppendableDataset from(Dataset dataset) {
+    AppendableDataset appendable = new AppendableDataset(dataset.schema(), dataset.execution);
+    appendable.add(dataset);
+    return appendable;
+  }
+
+  public int size() {
+    return builders.length == 0 ? 0 : builders[0].size;
+  }
+
+  /**
+   * Appends `rows`, which must have a column of the same type for every column of this dataset,
+   * and updates everything derived from it.
+   */
+  public AppendableDataset append(Dataset rows) {
+    if (derived) throw new IllegalStateException("Derived datasets only change when their source does");
+
+    add(rows);
+    return this;
+  }
+
+  /**
+   * The rows appended so far, without copying them.
+   */
+  public Dataset snapshot() {
+    if (snapshot == null) {
+      Column[] columns = new Column[builders.length];
+      for (int c = 0; c < columns.length; c++) columns[c] = builders[c].snapshot();
+      snapshot = Dataset.fromColumns(names.clone(), columns, size()).withExecution(execution);
+    }
+    return snapshot;
+  }
+
+  /**
+   * A dataset holding `f` of this dataset, kept up to date by evaluating `f` on every batch of
+   * appended rows. `f` must be row-wise: its result for some rows must not depend on other rows,
+   * and must have one row per row, as with arithmetic on columns.
+   */
+  public AppendableDataset derive(UnaryOperator<Dataset> f) {
+    AppendableDataset derived = from(rowWise(f, snapshot()));
+    derived.derived = true;
+    listeners.add(rows -> derived.add(rowWise(f, rows)));
+    return derived;
+  }
+
+  public Incremental<Value> sum(Field field) {
+    Aggregates.Partial[] sum = {new Aggregates.Partial()};
+    Expr[] expr = {null};
+    return listen(rows -> {
+      Expr values = rows.apply(field).single();
+      if (values != null) expr[0] = values;
+      sum[0] = Aggregates.mergeSums(sum[0], Aggregates.sums(values, rows.size, rows.execution));
+    }, () -> Aggregates.sum(sum[0], expr[0]));
+  }
+
+  public Incremental<Value> mean(Field field) {
+    Aggregates.Partial[] sum = {new Aggregates.Partial()};
+    Expr[] expr = {null};
+    return listen(rows -> {
+      Expr values = rows.apply(field).single();
+      if (values != null) expr[0] = values;
+      sum[0] = Aggregates.mergeSums(sum[0], Aggregates.sums(values, rows.size, rows.execution));
+    }, () -> Aggregates.mean(sum[0], expr[0]));
+  }
+
+  public Incremental<Value> min(Field field) {
+    return extremum(field, false);
+  }
+
+  public Incremental<Value> max(Field field) {
+    return extremum(field, true);
+  }
+
+  private Incremental<Value> extremum(Field field, boolean max) {
+    Aggregates.Partial[] result = {new Aggregates.Partial()};
+    Expr[] expr = {null};
+    return listen(rows -> {
+      Expr values = rows.apply(field).single();
+      if (values == null) return;
+
+      expr[0] = values;
+      Aggregates.Partial partial = Aggregates.extrema(values, rows.size, rows.execution, max);
+      result[0] = Aggregates.mergeExtrema(result[0], partial, values.type == Column.Type.INTEGER, max);
+    }, () -> Aggregates.extremum(result[0], expr[0]));
+  }
+
+  /**
+   * Groups rows by the values of `fields`, for aggregates per group that are kept up to date.
+   */
+  public AppendableGroupedDataset groupBy(Field... fields) {
+    return new AppendableGroupedDataset(this, fields);
+  }
+
+  /**
+   * Applies `update` to the rows so far, then to every batch of appended rows; `value` computes
+   * the current value from the state that `update` maintains.
+   */
+  <A> Incremental<A> listen(Consumer<Dataset> update, Supplier<A> value) {
+    Incremental<A> incremental = new Incremental<>(value);
+    update.accept(snapshot());
+    listeners.add(rows -> {
+      update.accept(rows);
+      incremental.value = null;
+    });
+    return incremental;
+  }
+
+  private void add(Dataset rows) {
+    Dataset materialized = rows.materialize();
+    if (materialized.names.length != names.length) throw new IllegalArgumentException("Appended rows have " + materialized.names.length + " columns, but this dataset has " + names.length);
+
+    // Columns are matched by name, so appended rows may list them in any order:
+    Column[] columns = new Column[names.length];
+    for (int c = 0; c < names.length; c++) {
+      Dataset column = materialized.apply(new Field(names[c]));
+      if (column.names.length == 0) throw new IllegalArgumentException("Appended rows lack column " + names[c]);
+
+      columns[c] = column.column(0);
+      if (columns[c].type != builders[c].type) throw new IllegalArgumentException("Column " + names[c] + " holds " + builders[c].type + ", but appended rows hold " + columns[c].type);
+    }
+
+    for (int c = 0; c < names.length; c++) builders[c].append(columns[c]);
+    snapshot = null;
+
+    Dataset appended = Dataset.fromColumns(names.clone(), columns, materialized.size).withExecution(execution);
+    for (Consumer<Dataset> listener : listeners) listener.accept(appended);
+  }
+
+  private static Dataset rowWise(UnaryOperator<Dataset> f, Dataset rows) {
+    Dataset result = f.apply(rows);
+    if (result.size != rows.size) throw new IllegalArgumentException("Derived datasets need a row-wise transformation, but it turned " + rows.size + " rows into " + result.size);
+    return result;
+  }
+}
@@ -0,0 +1,63 @@
+package net.degoes.project.dataset1;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+/**
+ * The rows of an appendable dataset grouped by key fields. Every aggregate is a dataset with one
+ * row per group, in order of first appearance: the key fields, followed by the aggregate. Each
+ * keeps one group table (see `SpillingGroupBy`, which never spills here) into which appended rows
+ * are aggregated as they arrive.
+ */
+public final class AppendableGroupedDataset {
+  AppendableDataset appendable;
+  Field[] fields;
+
+  AppendableGroupedDataset(AppendableDataset appendable, Field[] fields) {
+    this.appendable = appendable;
+    this.fields = fields.clone();
+  }
+
+  /**
+   * The number of rows of every group, in a column named `count`.
+   */
+  public Incremental<Dataset> count() {
+    return aggregate(GroupBy.Op.COUNT, null, "count");
+  }
+
+  public Incremental<Dataset> sum(Field field) {
+    return aggregate(GroupBy.Op.SUM, field, "sum(" + field.name + ")");
+  }
+
+  public Incremental<Dataset> mean(Field field) {
+    return aggregate(GroupBy.Op.MEAN, field, "mean(" + field.name + ")");
+  }
+
+  public Incremental<Dataset> min(Field field) {
+    return aggregate(GroupBy.Op.MIN, field, "min(" + field.name + ")");
+  }
+
+  public Incremental<Dataset> max(Field field) {
+    return aggregate(GroupBy.Op.MAX, field, "max(" + field.name + ")");
+  }
+
+  private Incremental<Dataset> aggregate(GroupBy.Op op, Field field, String name) {
+    SpillingGroupBy groupBy = new SpillingGroupBy(appendable.snapshot().schema(), fields, op, field, Long.MAX_VALUE, null);
+    return appendable.listen(
+      rows -> {
+        try {
+          groupBy.add(rows);
+        } catch (IOException ex) {
+          throw new UncheckedIOException(ex);
+        }
+      },
+      () -> {
+        try {
+          return groupBy.result(name).withExecution(appendable.execution);
+        } catch (IOException ex) {
+          throw new UncheckedIOException(ex);
+        }
+      }
+    );
+  }
+}
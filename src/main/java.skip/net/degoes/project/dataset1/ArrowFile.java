@@ -0,0 +1,358 @@
+package net.degoes.project.dataset1;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * Reads and writes datasets as Apache Arrow IPC files (also known as Feather V2), to hand them to
+ * other tools without converting them value by value.
+ *
+ * Columns are already laid out as Arrow arrays: validity is a bitmap with bit `i` of the
+ * little-endian words for row `i`, numbers are `Int64` or `Float64` values, and text is a
+ * `Utf8` dictionary with `Int32` indices (the codes of `Column`). `write` therefore copies the
+ * buffers to the file as they are: a schema, one dictionary batch per text column, then one record
+ * batch, with metadata encoded by `Flatbuffers` and every buffer on a 64-byte boundary.
+ *
+ * `open` maps the record batch buffers read-only and builds columns directly over them, as
+ * `DatasetFile.open` does, so only the metadata and the dictionaries are decoded. It also reads
+ * files written by other tools, as long as every field is an `Int64`, a `Float64` or a `Utf8` (plain,
+ * or dictionary-encoded with `Int32` indices) and buffers are not compressed. Plain `Utf8` columns
+ * and files of several record batches are copied into memory instead.
+ */
+public final class ArrowFile {
+  static final byte[] Magic = "ARROW1".getBytes(StandardCharsets.US_ASCII);
+  static final int MetadataV5 = 4;
+  static final int Alignment = 64;
+
+  // Members of the `MessageHeader` and `Type` unions:
+  static final int SchemaHeader = 1, DictionaryBatchHeader = 2, RecordBatchHeader = 3;
+  static final int IntType = 2, FloatingPointType = 3, Utf8Type = 5;
+
+  public static void write(Dataset dataset, Path path) throws IOException {
+    Dataset materialized = dataset.materialize();
+    int rows = materialized.size;
+    Column[] columns = new Column[materialized.names.length];
+    for (int c = 0; c < columns.length; c++) columns[c] = materialized.column(c);
+    Flatbuffers.Node schema = schema(materialized.names, columns);
+
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+      DatasetFile.Output out = new DatasetFile.Output(channel);
+      out.put(Magic);
+      out.padTo(8);
+      message(out, Flatbuffers.encode(message(SchemaHeader, schema, 0)));
+
+      // Every block is the offset, metadata length and body length of one message:
+      ArrayList<Long> dictionaryBlocks = new ArrayList<>();
+      for (int c = 0; c < columns.length; c++) {
+        if (columns[c].type != Column.Type.TEXT) continue;
+
+        int[][] offsets = new int[1][];
+        byte[][] texts = new byte[1][];
+        DatasetFile.encodeDictionary(columns[c].dictionary, 0, offsets, texts);
+        int size = offsets[0].length - 1;
+        long textStart = DatasetFile.align(4L * (size + 1));
+        long bodyBytes = DatasetFile.align(textStart + texts[0].length);
+        Flatbuffers.Node batch = recordBatch(size, new long[] {size, 0}, new long[] {0, 0, 0, 4L * (size + 1), textStart, texts[0].length});
+        Flatbuffers.Node header = new Flatbuffers.Table().scalar(0, 8, c).reference(1, batch);
+
+        long start = out.position;
+        int metadataBytes = message(out, Flatbuffers.encode(message(DictionaryBatchHeader, header, bodyBytes)));
+        long body = out.position;
+        for (int offset : offsets[0]) out.putInt(offset);
+        out.padTo(body + textStart);
+        out.put(texts[0]);
+        out.padTo(body + bodyBytes);
+        dictionaryBlocks.add(start);
+        dictionaryBlocks.add((long) metadataBytes);
+        dictionaryBlocks.add(bodyBytes);
+      }
+
+      long[] nodes = new long[2 * columns.length];
+      long[] buffers = new long[4 * columns.length];
+      long bodyBytes = 0;
+      for (int c = 0; c < columns.length; c++) {
+        nodes[2 * c] = rows;
+        nodes[2 * c + 1] = nullCount(columns[c]);
+        long validityBytes = nodes[2 * c + 1] > 0 ? 8L * ((rows + 63) >>> 6) : 0;
+        long valueBytes = (columns[c].type == Column.Type.TEXT ? 4L : 8L) * rows;
+
+        buffers[4 * c] = bodyBytes;     buffers[4 * c + 1] = validityBytes; bodyBytes = DatasetFile.align(bodyBytes + validityBytes);
+        buffers[4 * c + 2] = bodyBytes; buffers[4 * c + 3] = valueBytes;    bodyBytes = DatasetFile.align(bodyBytes + valueBytes);
+      }
+
+      long start = out.position;
+      int metadataBytes = message(out, Flatbuffers.encode(message(RecordBatchHeader, recordBatch(rows, nodes, buffers), bodyBytes)));
+      long body = out.position;
+      for (int c = 0; c < columns.length; c++) {
+        Column column = columns[c];
+
+        out.padTo(body + buffers[4 * c]);
+        for (int w = 0; w < buffers[4 * c + 1] / 8; w++) out.putLong(DatasetFile.validityWord(column, w));
+
+        out.padTo(body + buffers[4 * c + 2]);
+        switch (column.type) {
+          case INTEGER:
+            for (int i = 0; i < rows; i++) out.putLong(column.getLong(i));
+            break;
+          case DECIMAL:
+            for (int i = 0; i < rows; i++) out.putDouble(column.getDouble(i));
+            break;
+          case TEXT:
+            // Indices of invalid cells must still be in range for some readers:
+            for (int i = 0; i < rows; i++) out.putInt(column.isValid(i) ? column.getCode(i) : 0);
+            break;
+        }
+      }
+      out.padTo(body + bodyBytes);
+
+      // End of the stream, then the footer:
+      out.putInt(-1);
+      out.putInt(0);
+      long[] dictionaries = new long[dictionaryBlocks.size()];
+      for (int i = 0; i < dictionaries.length; i++) dictionaries[i] = dictionaryBlocks.get(i);
+      byte[] footer = Flatbuffers.encode(new Flatbuffers.Table()
+        .scalar(0, 2, MetadataV5)
+        .reference(1, schema)
+        .reference(2, new Flatbuffers.Structs(3, dictionaries))
+        .reference(3, new Flatbuffers.Structs(3, new long[] {start, metadataBytes, bodyBytes})));
+      out.put(footer);
+      out.putInt(footer.length);
+      out.put(Magic);
+      out.flush();
+    }
+  }
+
+  public static Dataset open(Path path) throws IOException {
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+      long fileBytes = channel.size();
+      if (fileBytes < 18 || !isMagic(DatasetFile.read(channel, 0, 6)) || !isMagic(DatasetFile.read(channel, fileBytes - 6, 6))) throw new IOException("Not an Arrow file: " + path);
+      int footerBytes = DatasetFile.read(channel, fileBytes - 10, 4).getInt();
+      ByteBuffer footer = DatasetFile.read(channel, fileBytes - 10 - footerBytes, footerBytes);
+      int root = Flatbuffers.root(footer);
+
+      // The schema:
+      int fields = Flatbuffers.reference(footer, Flatbuffers.reference(footer, root, 1), 1);
+      int count = Flatbuffers.length(footer, fields);
+      String[] names = new String[count];
+      Column.Type[] types = new Column.Type[count];
+      long[] dictionaryIds = new long[count];
+      for (int c = 0; c < count; c++) {
+        int field = Flatbuffers.table(footer, fields, c);
+        names[c] = Flatbuffers.string(footer, field, 0);
+        if (names[c] == null) names[c] = "";
+        types[c] = type(footer, field, names[c]);
+        int encoding = Flatbuffers.reference(footer, field, 4);
+        dictionaryIds[c] = encoding == 0 ? -1 : Flatbuffers.getLong(footer, encoding, 0, 0);
+      }
+
+      HashMap<Long, Dictionary> dictionaries = new HashMap<>();
+      int blocks = Flatbuffers.reference(footer, root, 2);
+      for (int b = 0; b < Flatbuffers.length(footer, blocks); b++) {
+        long start = Flatbuffers.struct(footer, blocks, b, 3, 0);
+        int metadataBytes = (int) Flatbuffers.struct(footer, blocks, b, 3, 1);
+        ByteBuffer message = message(channel, start, metadataBytes, DictionaryBatchHeader);
+        int header = Flatbuffers.reference(message, Flatbuffers.root(message), 2);
+        if (Flatbuffers.getByte(message, header, 2, 0) != 0) throw new IOException("Delta dictionaries are not supported: " + path);
+
+        int batch = Flatbuffers.reference(message, header, 1);
+        int size = toRows(Flatbuffers.getLong(message, batch, 0, 0));
+        String[] values = strings(channel, message, batch, 0, size, start + metadataBytes, null);
+        dictionaries.put(Flatbuffers.getLong(message, header, 0, 0), Dictionary.of(values));
+      }
+
+      ArrayList<Dataset> batches = new ArrayList<>();
+      blocks = Flatbuffers.reference(footer, root, 3);
+      for (int b = 0; b < Flatbuffers.length(footer, blocks); b++) {
+        long start = Flatbuffers.struct(footer, blocks, b, 3, 0);
+        int metadataBytes = (int) Flatbuffers.struct(footer, blocks, b, 3, 1);
+        ByteBuffer message = message(channel, start, metadataBytes, RecordBatchHeader);
+        int batch = Flatbuffers.reference(message, Flatbuffers.root(message), 2);
+        int rows = toRows(Flatbuffers.getLong(message, batch, 0, 0));
+        int nodes = Flatbuffers.reference(message, batch, 1);
+        if (Flatbuffers.length(message, nodes) < count) throw new IOException("Record batch has too few field nodes: " + path);
+
+        long body = start + metadataBytes;
+        Column[] columns = new Column[count];
+        int buffer = 0;
+        for (int c = 0; c < count; c++) {
+          boolean nullable = Flatbuffers.struct(message, nodes, c, 2, 1) > 0;
+          if (types[c] == Column.Type.TEXT && dictionaryIds[c] < 0) {
+            long[] validity = nullable ? new long[(rows + 63) >>> 6] : null;
+            String[] strings = strings(channel, message, batch, buffer, rows, body, validity);
+            columns[c] = Column.texts(strings, validity);
+            buffer += 3;
+            continue;
+          }
+
+          LongBuffer validity = nullable ? validity(channel, message, batch, buffer, rows, body) : null;
+          switch (types[c]) {
+            case INTEGER: columns[c] = Column.mappedIntegers(rows, buffer(channel, message, batch, buffer + 1, 8L * rows, body).asLongBuffer(), validity); break;
+            case DECIMAL: columns[c] = Column.mappedDecimals(rows, buffer(channel, message, batch, buffer + 1, 8L * rows, body).asDoubleBuffer(), validity); break;
+            default:
+              Dictionary dictionary = dictionaries.get(dictionaryIds[c]);
+              if (dictionary == null) throw new IOException("Missing dictionary " + dictionaryIds[c] + " of field " + names[c] + ": " + path);
+              columns[c] = Column.mappedTexts(rows, buffer(channel, message, batch, buffer + 1, 4L * rows, body).asIntBuffer(), dictionary, validity);
+              break;
+          }
+          buffer += 2;
+        }
+        batches.add(Dataset.fromColumns(names.clone(), columns, rows));
+      }
+
+      // Mappings stay valid after the channel is closed.
+      return batches.size() == 1 ? batches.get(0) : ChunkedDataset.concat(batches, new Schema(names, types));
+    }
+  }
+
+  private static Flatbuffers.Node schema(String[] names, Column[] columns) {
+    Flatbuffers.Node[] fields = new Flatbuffers.Node[columns.length];
+    for (int c = 0; c < columns.length; c++) {
+      Flatbuffers.Table field = new Flatbuffers.Table()
+        .reference(0, new Flatbuffers.Text(names[c]))
+        .scalar(1, 1, columns[c].isNullable() ? 1 : 0)
+        .reference(5, new Flatbuffers.Tables());
+      switch (columns[c].type) {
+        case INTEGER:
+          field.scalar(2, 1, IntType).reference(3, integerType(64));
+          break;
+        case DECIMAL:
+          field.scalar(2, 1, FloatingPointType).reference(3, new Flatbuffers.Table().scalar(0, 2, 2));
+          break;
+        case TEXT:
+          field.scalar(2, 1, Utf8Type).reference(3, new Flatbuffers.Table());
+          field.reference(4, new Flatbuffers.Table().scalar(0, 8, c).reference(1, integerType(32)));
+          break;
+      }
+      fields[c] = field;
+    }
+    return new Flatbuffers.Table().scalar(0, 2, 0).reference(1, new Flatbuffers.Tables(fields));
+  }
+
+  private static Flatbuffers.Node integerType(int bits) {
+    return new Flatbuffers.Table().scalar(0, 4, bits).scalar(1, 1, 1);
+  }
+
+  private static Flatbuffers.Node recordBatch(long rows, long[] nodes, long[] buffers) {
+    return new Flatbuffers.Table()
+      .scalar(0, 8, rows)
+      .reference(1, new Flatbuffers.Structs(2, nodes))
+      .reference(2, new Flatbuffers.Structs(2, buffers));
+  }
+
+  private static Flatbuffers.Node message(int headerType, Flatbuffers.Node header, long bodyBytes) {
+    return new Flatbuffers.Table()
+      .scalar(0, 2, MetadataV5)
+      .scalar(1, 1, headerType)
+      .reference(2, header)
+      .scalar(3, 8, bodyBytes);
+  }
+
+  // Writes encapsulated metadata, returning its length including the prefix:
+  private static int message(DatasetFile.Output out, byte[] metadata) throws IOException {
+    out.putInt(-1);
+    out.putInt(metadata.length);
+    out.put(metadata);
+    return 8 + metadata.length;
+  }
+
+  private static ByteBuffer message(FileChannel channel, long start, int metadataBytes, int headerType) throws IOException {
+    // Files before Arrow 0.15 lack the -1 continuation marker:
+    int prefix = DatasetFile.read(channel, start, 4).getInt() == -1 ? 8 : 4;
+    ByteBuffer message = DatasetFile.read(channel, start + prefix, metadataBytes - prefix);
+    int root = Flatbuffers.root(message);
+    if (Flatbuffers.getByte(message, root, 1, 0) != headerType) throw new IOException("Unexpected Arrow message type at offset " + start);
+    int header = Flatbuffers.reference(message, root, 2);
+    int batch = headerType == DictionaryBatchHeader ? Flatbuffers.reference(message, header, 1) : header;
+    if (Flatbuffers.reference(message, batch, 3) != 0) throw new IOException("Compressed Arrow buffers are not supported");
+    return message;
+  }
+
+  private static Column.Type type(ByteBuffer footer, int field, String name) throws IOException {
+    int typeType = Flatbuffers.getByte(footer, field, 2, 0);
+    int type = Flatbuffers.reference(footer, field, 3);
+    int encoding = Flatbuffers.reference(footer, field, 4);
+    if (encoding != 0) {
+      int index = Flatbuffers.reference(footer, encoding, 1);
+      if (typeType == Utf8Type && (index == 0 || Flatbuffers.getInt(footer, index, 0, 0) == 32)) return Column.Type.TEXT;
+    } else if (typeType == IntType && Flatbuffers.getInt(footer, type, 0, 0) == 64 && Flatbuffers.getByte(footer, type, 1, 0) == 1) {
+      return Column.Type.INTEGER;
+    } else if (typeType == FloatingPointType && Flatbuffers.getShort(footer, type, 0, 0) == 2) {
+      return Column.Type.DECIMAL;
+    } else if (typeType == Utf8Type) {
+      return Column.Type.TEXT;
+    }
+    throw new IOException("Unsupported Arrow type of field " + name);
+  }
+
+  // Maps buffer `index` of a record batch, checking that it holds at least `bytes`:
+  private static ByteBuffer buffer(FileChannel channel, ByteBuffer message, int batch, int index, long bytes, long body) throws IOException {
+    int buffers = Flatbuffers.reference(message, batch, 2);
+    if (index >= Flatbuffers.length(message, buffers)) throw new IOException("Record batch has too few buffers");
+    long offset = Flatbuffers.struct(message, buffers, index, 2, 0);
+    long length = Flatbuffers.struct(message, buffers, index, 2, 1);
+    if (length < bytes) throw new IOException("Truncated Arrow buffer");
+
+    ByteBuffer mapped = DatasetFile.map(channel, body + offset, length);
+    return mapped == null ? ByteBuffer.allocate(0).order(ByteOrder.LITTLE_ENDIAN) : mapped;
+  }
+
+  private static LongBuffer validity(FileChannel channel, ByteBuffer message, int batch, int index, int rows, long body) throws IOException {
+    int words = (rows + 63) >>> 6;
+    ByteBuffer bytes = buffer(channel, message, batch, index, (rows + 7) >>> 3, body);
+    if (bytes.capacity() >= 8 * words) return bytes.asLongBuffer();
+
+    // Bitmaps padded to a byte rather than a word are copied:
+    long[] bits = new long[words];
+    for (int i = 0; i < (rows + 7) >>> 3; i++) bits[i >>> 3] |= (bytes.get(i) & 0xFFL) << (8 * (i & 7));
+    return LongBuffer.wrap(bits);
+  }
+
+  // Decodes a `Utf8` array from buffers `index` to `index + 2`, setting the bits of valid rows in `validity`:
+  private static String[] strings(FileChannel channel, ByteBuffer message, int batch, int index, int rows, long body, long[] validity) throws IOException {
+    LongBuffer valid = validity == null ? null : validity(channel, message, batch, index, rows, body);
+    IntBuffer offsets = buffer(channel, message, batch, index + 1, rows == 0 ? 0 : 4L * (rows + 1), body).asIntBuffer();
+    ByteBuffer data = buffer(channel, message, batch, index + 2, rows == 0 ? 0 : offsets.get(rows), body);
+
+    String[] strings = new String[rows];
+    for (int i = 0; i < rows; i++) {
+      if (valid != null && (valid.get(i >>> 6) & (1L << i)) == 0) continue;
+      if (validity != null) Bitmap.set(validity, i);
+
+      byte[] utf8 = new byte[offsets.get(i + 1) - offsets.get(i)];
+      data.get(offsets.get(i), utf8);
+      strings[i] = new String(utf8, StandardCharsets.UTF_8);
+    }
+    return strings;
+  }
+
+  private static long nullCount(Column column) {
+    if (!column.isNullable()) return 0;
+
+    long valid = 0;
+    for (int w = 0; w < (column.size + 63) >>> 6; w++) {
+      long word = DatasetFile.validityWord(column, w);
+      if (64L * (w + 1) > column.size) word &= ~(-1L << (column.size & 63));
+      valid += Long.bitCount(word);
+    }
+    return column.size - valid;
+  }
+
+  private static int toRows(long rows) throws IOException {
+    if (rows < 0 || rows > Integer.MAX_VALUE) throw new IOException("Record batch of " + rows + " rows is too large");
+    return (int) rows;
+  }
+
+  private static boolean isMagic(ByteBuffer bytes) {
+    for (byte b : Magic) if (bytes.get() != b) return false;
+    return true;
+  }
+}
@@ -0,0 +1,46 @@
+package net.degoes.project.dataset1;
+
+/**
+ * Validity bitmaps: bit `i` of word `i / 64` is set when row `i` holds a value. A `null` bitmap
+ * means every row is valid, so fully populated columns pay nothing.
+ */
+final class Bitmap {
+  static long[] allocate(int size) {
+    return new long[(size + 63) >>> 6];
+  }
+
+  static boolean get(long[] bits, int row) {
+    return (bits[row >>> 6] & (1L << row)) != 0;
+  }
+
+  static void set(long[] bits, int row) {
+    bits[row >>> 6] |= 1L << row;
+  }
+
+  static boolean isValid(long[] bits, int row) {
+    return bits == null || (bits[row >>> 6] & (1L << row)) != 0;
+  }
+
+  static boolean all(long[] bits, int size) {
+    int full = size >>> 6;
+    for (int w = 0; w < full; w++) if (bits[w] != -1L) return false;
+    int rest = size & 63;
+    return rest == 0 || (bits[full] | (-1L << rest)) == -1L;
+  }
+
+  static int count(long[] bits, int size) {
+    if (bits == null) return size;
+    int full = size >>> 6, count = 0;
+    for (int w = 0; w < full; w++) count += Long.bitCount(bits[w]);
+    int rest = size & 63;
+    if (rest != 0) count += Long.bitCount(bits[full] & ~(-1L << rest));
+    return count;
+  }
+
+  /**
+   * Returns `null` when every row of `bits` is valid, so callers can drop the bitmap.
+   */
+  static long[] compact(long[] bits, int size) {
+    return bits == null || all(bits, size) ? null : bits;
+  }
+}
@@ -0,0 +1,343 @@
+package net.degoes.project.dataset1;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.function.Consumer;
+import java.util.function.UnaryOperator;
+
+/**
+ * A dataset processed as a stream of row batches, for data that does not fit on the heap. Only
+ * one batch is resident at a time; every batch is an ordinary `Dataset`, so operations within a
+ * batch are as fast as on any other dataset.
+ *
+ * Batches come from a CSV file (see `CsvReader.batches`), or from slices of a memory-mapped
+ * `DatasetFile`, whose pages the operating system can evict. Each terminal operation reads the
+ * source again, so a chunked dataset can be used any number of times.
+ *
+ * Intermediate state that grows with the data spills to temporary files once it exceeds the
+ * memory budget: the tables of `groupBy` (see `SpillingGroupBy`), and the build side of `join`
+ * (see `GraceJoin`).
+ */
+public final class ChunkedDataset {
+  static final int DefaultBatchRows = 64 * 1024;
+
+  Source source;
+  SchemaSource sourceSchema;
+  UnaryOperator<Dataset> transform = null;
+  Execution execution = Execution.Sequential;
+  long memoryBytes = Runtime.getRuntime().maxMemory() / 4;
+  Path spillDirectory = null;
+
+  interface Source {
+    Batches open() throws IOException;
+  }
+
+  interface SchemaSource {
+    Schema schema() throws IOException;
+  }
+
+  /**
+   * The batches of one pass over a chunked dataset. Close it to release the source if it is not
+   * consumed to the end.
+   */
+  public interface Batches extends Iterator<Dataset>, Closeable {
+    void close();
+  }
+
+  ChunkedDataset(Source source, SchemaSource sourceSchema) {
+    this.source = source;
+    this.sourceSchema = sourceSchema;
+  }
+
+  private ChunkedDataset copy(Source source, SchemaSource sourceSchema) {
+    ChunkedDataset chunked = new ChunkedDataset(source, sourceSchema);
+    chunked.execution = execution;
+    chunked.memoryBytes = memoryBytes;
+    chunked.spillDirectory = spillDirectory;
+    return chunked;
+  }
+
+  private ChunkedDataset copy() {
+    ChunkedDataset chunked = copy(source, sourceSchema);
+    chunked.transform = transform;
+    return chunked;
+  }
+
+  public static ChunkedDataset of(CsvReader reader) {
+    return new ChunkedDataset(reader::batches, reader::schema);
+  }
+
+  /**
+   * The rows of a `DatasetFile`, in batches of `batchRows`. The file is mapped, not read: batches
+   * read their columns through the mapping.
+   */
+  public static ChunkedDataset open(Path path, int batchRows) {
+    return new ChunkedDataset(() -> slices(DatasetFile.open(path), batchRows), () -> DatasetFile.open(path).schema());
+  }
+
+  public static ChunkedDataset open(Path path) {
+    return open(path, DefaultBatchRows);
+  }
+
+  /**
+   * A dataset already in memory, in batches of `batchRows`.
+   */
+  public static ChunkedDataset of(Dataset dataset, int batchRows) {
+    return new ChunkedDataset(() -> slices(dataset, batchRows), dataset::schema);
+  }
+
+  /**
+   * The names and types of the columns of every batch, known without reading any: those of the
+   * source, as transformed by `map` and the operations built on it.
+   */
+  public Schema schema() throws IOException {
+    Schema schema = sourceSchema.schema();
+    return transform == null ? schema : transform.apply(empty(schema).withExecution(execution)).schema();
+  }
+
+  /**
+   * Evaluates every batch with `execution`.
+   */
+  public ChunkedDataset withExecution(Execution execution) {
+    ChunkedDataset chunked = copy();
+    chunked.execution = execution;
+    return chunked;
+  }
+
+  /**
+   * Sets the heap that operations may use for intermediate state before spilling to disk.
+   */
+  public ChunkedDataset withMemoryBudget(long bytes) {
+    if (bytes < 1) throw new IllegalArgumentException("Memory budget must be positive");
+
+    ChunkedDataset chunked = copy();
+    chunked.memoryBytes = bytes;
+    return chunked;
+  }
+
+  /**
+   * Spills into temporary directories under `directory`, instead of the default temporary directory.
+   */
+  public ChunkedDataset withSpillDirectory(Path directory) {
+    ChunkedDataset chunked = copy();
+    chunked.spillDirectory = directory;
+    return chunked;
+  }
+
+  /**
+   * Applies `f` to every batch, e.g. `chunked.map(batch -> batch.apply(end).minus(batch.apply(start)))`.
+   */
+  public ChunkedDataset map(UnaryOperator<Dataset> f) {
+    UnaryOperator<Dataset> before = transform;
+    ChunkedDataset chunked = copy();
+    chunked.transform = before == null ? f : batch -> f.apply(before.apply(batch));
+    return chunked;
+  }
+
+  public ChunkedDataset apply(Field field) {
+    return map(batch -> batch.apply(field));
+  }
+
+  public ChunkedDataset filter(Predicate predicate) {
+    return map(batch -> batch.filter(predicate));
+  }
+
+  /**
+   * Opens a pass over the batches, each with this dataset's execution and transformations.
+   */
+  public Batches batches() throws IOException {
+    Batches batches = source.open();
+    return new Batches() {
+      public boolean hasNext() {
+        return batches.hasNext();
+      }
+
+      public Dataset next() {
+        Dataset batch = batches.next().withExecution(execution);
+        return transform == null ? batch : transform.apply(batch);
+      }
+
+      public void close() {
+        batches.close();
+      }
+    };
+  }
+
+  public void forEach(Consumer<Dataset> action) throws IOException {
+    try (Batches batches = batches()) {
+      while (batches.hasNext()) action.accept(batches.next());
+    }
+  }
+
+  /**
+   * Loads every batch into one in-memory dataset, for results known to be small.
+   */
+  public Dataset toDataset() throws IOException {
+    ArrayList<Dataset> batches = new ArrayList<>();
+    forEach(batches::add);
+    return concat(batches, batches.isEmpty() ? schema() : null).withExecution(execution);
+  }
+
+  public long count() throws IOException {
+    long[] count = {0};
+    forEach(batch -> count[0] += batch.size);
+    return count[0];
+  }
+
+  public Value sum(Field field) throws IOException {
+    Expr[] expr = {null};
+    return Aggregates.sum(sums(field, expr), expr[0]);
+  }
+
+  public Value mean(Field field) throws IOException {
+    Expr[] expr = {null};
+    return Aggregates.mean(sums(field, expr), expr[0]);
+  }
+
+  public Value min(Field field) throws IOException {
+    return extremum(field, false);
+  }
+
+  public Value max(Field field) throws IOException {
+    return extremum(field, true);
+  }
+
+  // Sums `field` over all batches, leaving the expression of some batch in `expr`:
+  private Aggregates.Partial sums(Field field, Expr[] expr) throws IOException {
+    Aggregates.Partial[] sum = {new Aggregates.Partial()};
+    forEach(batch -> {
+      Expr values = batch.apply(field).single();
+      if (values != null) expr[0] = values;
+      sum[0] = Aggregates.mergeSums(sum[0], Aggregates.sums(values, batch.size, batch.execution));
+    });
+    return sum[0];
+  }
+
+  private Value extremum(Field field, boolean max) throws IOException {
+    Aggregates.Partial[] result = {new Aggregates.Partial()};
+    Expr[] expr = {null};
+    forEach(batch -> {
+      Expr values = batch.apply(field).single();
+      if (values == null) return;
+
+      expr[0] = values;
+      Aggregates.Partial partial = Aggregates.extrema(values, batch.size, batch.execution, max);
+      result[0] = Aggregates.mergeExtrema(result[0], partial, values.type == Column.Type.INTEGER, max);
+    });
+    return Aggregates.extremum(result[0], expr[0]);
+  }
+
+  /**
+   * Groups rows by the values of `fields` across all batches. Group tables larger than the memory
+   * budget spill to disk.
+   */
+  public ChunkedGroupedDataset groupBy(Field... fields) {
+    return new ChunkedGroupedDataset(this, fields);
+  }
+
+  /**
+   * Like `Dataset.join`, with `that` as the build side. A build side within the memory budget is
+   * loaded once, and the batches of this dataset stream past it in order. A larger one is
+   * partitioned to disk together with this dataset (see `GraceJoin`), and the result comes out
+   * partition by partition.
+   */
+  public ChunkedDataset join(ChunkedDataset that, Field... fields) {
+    return copy(() -> GraceJoin.join(this, that, fields, false), () -> GraceJoin.schema(this, that, fields, false));
+  }
+
+  public ChunkedDataset leftJoin(ChunkedDataset that, Field... fields) {
+    return copy(() -> GraceJoin.join(this, that, fields, true), () -> GraceJoin.schema(this, that, fields, true));
+  }
+
+  // An estimate of the heap `dataset` occupies once materialized:
+  static long bytes(Dataset dataset) {
+    long bytes = 0;
+    for (Expr expr : dataset.exprs) bytes += (expr.type == Column.Type.TEXT ? 4L : 8L) * dataset.size + dataset.size / 8;
+    return bytes;
+  }
+
+  /**
+   * Appends `batches` into one materialized dataset. Text is re-encoded into one dictionary per
+   * column. Without batches, the result has the columns of `schema`, or none.
+   */
+  static Dataset concat(ArrayList<Dataset> batches, Schema schema) {
+    if (batches.size() == 1) return batches.get(0).materialize();
+    if (batches.isEmpty()) {
+      if (schema == null) schema = Schema.empty();
+      Column[] columns = new Column[schema.size()];
+      for (int c = 0; c < columns.length; c++) columns[c] = new ColumnBuilder(schema.types[c], 0, new Dictionary()).build();
+      return Dataset.fromColumns(schema.names.clone(), columns, 0);
+    }
+
+    Dataset first = batches.get(0);
+    int size = 0;
+    for (Dataset batch : batches) size = Math.addExact(size, batch.size);
+
+    Column[] columns = new Column[first.names.length];
+    for (int c = 0; c < columns.length; c++) {
+      ColumnBuilder builder = new ColumnBuilder(first.exprs[c].type, size, new Dictionary());
+      for (Dataset batch : batches) {
+        Column column = batch.column(c);
+        if (column.type != builder.type) throw new IllegalStateException("Column " + first.names[c] + " changes type between batches");
+        builder.append(column);
+      }
+      columns[c] = builder.build();
+    }
+    return Dataset.fromColumns(first.names.clone(), columns, size);
+  }
+
+  // A dataset of no rows with the columns of `schema`:
+  static Dataset empty(Schema schema) {
+    return concat(new ArrayList<>(), schema);
+  }
+
+  // `dataset` as the only batch, even if it has no rows, so that its columns are seen:
+  static Batches single(Dataset dataset) {
+    return new Batches() {
+      boolean done = false;
+
+      public boolean hasNext() {
+        return !done;
+      }
+
+      public Dataset next() {
+        if (done) throw new NoSuchElementException();
+
+        done = true;
+        return dataset;
+      }
+
+      public void close() {
+      }
+    };
+  }
+
+  // Consecutive slices of `dataset`, read through selection vectors:
+  static Batches slices(Dataset dataset, int batchRows) {
+    if (batchRows < 1) throw new IllegalArgumentException("batchRows must be positive");
+
+    return new Batches() {
+      int from = 0;
+
+      public boolean hasNext() {
+        return from < dataset.size;
+      }
+
+      public Dataset next() {
+        if (!hasNext()) throw new NoSuchElementException();
+
+        int[] rows = new int[Math.min(batchRows, dataset.size - from)];
+        for (int i = 0; i < rows.length; i++) rows[i] = from + i;
+        from += rows.length;
+        return dataset.select(rows);
+      }
+
+      public void close() {
+      }
+    };
+  }
+}
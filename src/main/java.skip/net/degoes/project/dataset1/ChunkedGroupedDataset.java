@@ -0,0 +1,42 @@
+package net.degoes.project.dataset1;
+
+import java.io.IOException;
+
+/**
+ * The rows of a chunked dataset grouped by key fields. Every aggregate reads all batches and
+ * returns an in-memory dataset with one row per group: the key fields, followed by the aggregate.
+ * Groups come out in order of first appearance unless the group table spilled to disk, in which
+ * case they come out partition by partition (see `SpillingGroupBy`).
+ */
+public final class ChunkedGroupedDataset {
+  ChunkedDataset chunked;
+  Field[] fields;
+
+  ChunkedGroupedDataset(ChunkedDataset chunked, Field[] fields) {
+    this.chunked = chunked;
+    this.fields = fields.clone();
+  }
+
+  /**
+   * The number of rows of every group, in a column named `count`.
+   */
+  public Dataset count() throws IOException {
+    return SpillingGroupBy.aggregate(chunked, fields, GroupBy.Op.COUNT, null, "count");
+  }
+
+  public Dataset sum(Field field) throws IOException {
+    return SpillingGroupBy.aggregate(chunked, fields, GroupBy.Op.SUM, field, "sum(" + field.name + ")");
+  }
+
+  public Dataset mean(Field field) throws IOException {
+    return SpillingGroupBy.aggregate(chunked, fields, GroupBy.Op.MEAN, field, "mean(" + field.name + ")");
+  }
+
+  public Dataset min(Field field) throws IOException {
+    return SpillingGroupBy.aggregate(chunked, fields, GroupBy.Op.MIN, field, "min(" + field.name + ")");
+  }
+
+  public Dataset max(Field field) throws IOException {
+    return SpillingGroupBy.aggregate(chunked, fields, GroupBy.Op.MAX, field, "max(" + field.name + ")");
+  }
+}
@@ -0,0 +1,264 @@
+package net.degoes.project.dataset1;
+
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+
+/**
+ * A single column of a `Dataset`, stored as one primitive array. The type tag says which of the
+ * arrays is populated. Missing cells are marked in a validity bitmap (see `Bitmap`) rather than
+ * boxed, so sparse and heterogeneous data still lives in primitive arrays.
+ *
+ * Text is dictionary-encoded: every cell is an `int` code into a `Dictionary` of the distinct
+ * strings, which columns derived from this one share. Invalid cells have code -1. Equality,
+ * hashing and gathering of text work on the codes alone.
+ *
+ * Cells of several types, as rows of a map may hold, share one column of the widest numeric type
+ * among them, with the type of every cell in `tags`. Integer cells of a decimal column keep their
+ * exact value in `longs` as well, and text cells keep their codes but are NA to the numeric type.
+ * Arithmetic on such columns follows the tags row by row (see `Expr.MixedBinary`), and `get`
+ * returns every cell as it was; other operations, and files, see only the numeric type.
+ *
+ * Columns opened from a file (see `DatasetFile`) are instead backed by memory-mapped buffers, and
+ * the array fields are `null`. Code that must handle both reads through `getLong`, `getDouble`,
+ * `getText` and `isValid`.
+ */
+final class Column {
+  enum Type { INTEGER, DECIMAL, TEXT }
+
+  static final Type[] Types = Type.values();
+  static final byte NoTag = -1;
+
+  Type type;
+  int size;
+
+  long[] longs;
+  double[] doubles;
+  int[] codes;
+  Dictionary dictionary;
+  long[] validity;
+  // For columns of mixed cells, the ordinal of the type of every cell, or `NoTag` for NA:
+  byte[] tags;
+
+  // Memory-mapped storage:
+  LongBuffer longBuffer;
+  DoubleBuffer doubleBuffer;
+  IntBuffer codeBuffer;
+  LongBuffer validityBuffer;
+
+  ColumnStats stats = null;
+
+  private Column(Type type, int size, long[] validity) {
+    this.type = type;
+    this.size = size;
+    this.validity = validity;
+  }
+
+  static Column integers(long[] longs) {
+    return integers(longs, null);
+  }
+
+  static Column integers(long[] longs, long[] validity) {
+    Column column = new Column(Type.INTEGER, longs.length, validity);
+    column.longs = longs;
+    return column;
+  }
+
+  static Column decimals(double[] doubles) {
+    return decimals(doubles, null);
+  }
+
+  static Column decimals(double[] doubles, long[] validity) {
+    Column column = new Column(Type.DECIMAL, doubles.length, validity);
+    column.doubles = doubles;
+    return column;
+  }
+
+  static Column texts(String[] texts) {
+    return texts(texts, null);
+  }
+
+  static Column texts(String[] texts, long[] validity) {
+    Dictionary dictionary = new Dictionary();
+    int[] codes = new int[texts.length];
+    for (int i = 0; i < codes.length; i++) codes[i] = Bitmap.isValid(validity, i) ? dictionary.encode(texts[i]) : -1;
+    return texts(codes, dictionary, validity);
+  }
+
+  static Column texts(int[] codes, Dictionary dictionary, long[] validity) {
+    Column column = new Column(Type.TEXT, codes.length, validity);
+    column.codes = codes;
+    column.dictionary = dictionary;
+    return column;
+  }
+
+  static Column mixed(Type type, int size, long[] longs, double[] doubles, int[] codes, Dictionary dictionary, byte[] tags, long[] validity) {
+    Column column = new Column(type, size, validity);
+    column.longs = longs;
+    column.doubles = doubles;
+    column.codes = codes;
+    column.dictionary = dictionary;
+    column.tags = tags;
+    return column;
+  }
+
+  static Column mappedIntegers(int size, LongBuffer values, LongBuffer validity) {
+    Column column = new Column(Type.INTEGER, size, null);
+    column.longBuffer = values;
+    column.validityBuffer = validity;
+    return column;
+  }
+
+  static Column mappedDecimals(int size, DoubleBuffer values, LongBuffer validity) {
+    Column column = new Column(Type.DECIMAL, size, null);
+    column.doubleBuffer = values;
+    column.validityBuffer = validity;
+    return column;
+  }
+
+  static Column mappedTexts(int size, IntBuffer codes, Dictionary dictionary, LongBuffer validity) {
+    Column column = new Column(Type.TEXT, size, null);
+    column.codeBuffer = codes;
+    column.dictionary = dictionary;
+    column.validityBuffer = validity;
+    return column;
+  }
+
+  /**
+   * Specializes boxed cells into a primitive column of the one type they all have, or into a
+   * column of mixed cells when they differ. `Value.NA` and missing cells (`null`) become invalid
+   * rows.
+   */
+  static Column of(Value[] cells) {
+    int integers = 0, decimals = 0, texts = 0;
+    for (Value cell : cells) {
+      if (cell instanceof Value.Integer) integers++;
+      else if (cell instanceof Value.Decimal) decimals++;
+      else if (cell instanceof Value.Text) texts++;
+      else if (cell != null && cell != Value.NA) throw new IllegalArgumentException("Unsupported cell " + cell.getClass().getName());
+    }
+    int kinds = (integers > 0 ? 1 : 0) + (decimals > 0 ? 1 : 0) + (texts > 0 ? 1 : 0);
+    if (kinds > 1) return mixed(cells, decimals > 0 ? Type.DECIMAL : Type.INTEGER, texts > 0);
+
+    int size = cells.length;
+    long[] validity = Bitmap.allocate(size);
+
+    if (texts > 0) {
+      String[] strings = new String[size];
+      for (int i = 0; i < size; i++) {
+        if (cells[i] instanceof Value.Text) {
+          strings[i] = ((Value.Text) cells[i]).value;
+          Bitmap.set(validity, i);
+        }
+      }
+      return texts(strings, Bitmap.compact(validity, size));
+    }
+
+    if (decimals > 0) {
+      double[] doubles = new double[size];
+      for (int i = 0; i < size; i++) {
+        if (cells[i] instanceof Value.Decimal) {
+          doubles[i] = ((Value.Decimal) cells[i]).value;
+          Bitmap.set(validity, i);
+        }
+      }
+      return decimals(doubles, Bitmap.compact(validity, size));
+    }
+
+    long[] longs = new long[size];
+    for (int i = 0; i < size; i++) {
+      if (cells[i] instanceof Value.Integer) {
+        longs[i] = ((Value.Integer) cells[i]).value;
+        Bitmap.set(validity, i);
+      }
+    }
+    return integers(longs, Bitmap.compact(validity, size));
+  }
+
+  // Text has no arithmetic, so the numeric cells decide the type of a column of mixed cells:
+  private static Column mixed(Value[] cells, Type type, boolean hasTexts) {
+    int size = cells.length;
+    long[] longs = new long[size];
+    double[] doubles = type == Type.DECIMAL ? new double[size] : null;
+    int[] codes = hasTexts ? new int[size] : null;
+    Dictionary dictionary = hasTexts ? new Dictionary() : null;
+    byte[] tags = new byte[size];
+    long[] validity = Bitmap.allocate(size);
+
+    for (int i = 0; i < size; i++) {
+      Value cell = cells[i];
+      tags[i] = NoTag;
+      if (codes != null) codes[i] = -1;
+      if (cell instanceof Value.Integer) {
+        tags[i] = (byte) Type.INTEGER.ordinal();
+        longs[i] = ((Value.Integer) cell).value;
+        if (doubles != null) doubles[i] = longs[i];
+        Bitmap.set(validity, i);
+      } else if (cell instanceof Value.Decimal) {
+        tags[i] = (byte) Type.DECIMAL.ordinal();
+        doubles[i] = ((Value.Decimal) cell).value;
+        Bitmap.set(validity, i);
+      } else if (cell instanceof Value.Text) {
+        tags[i] = (byte) Type.TEXT.ordinal();
+        codes[i] = dictionary.encode(((Value.Text) cell).value);
+      }
+    }
+    return mixed(type, size, longs, doubles, codes, dictionary, tags, Bitmap.compact(validity, size));
+  }
+
+  /**
+   * The statistics of this column, computed in one pass on first use.
+   */
+  synchronized ColumnStats stats() {
+    if (stats == null) stats = ColumnStats.of(this);
+    return stats;
+  }
+
+  boolean isNumeric() {
+    return type == Type.INTEGER || type == Type.DECIMAL;
+  }
+
+  boolean isNullable() {
+    return validity != null || validityBuffer != null;
+  }
+
+  boolean isValid(int row) {
+    if (validityBuffer != null) return (validityBuffer.get(row >>> 6) & (1L << row)) != 0;
+    return Bitmap.isValid(validity, row);
+  }
+
+  long getLong(int row) {
+    return longs != null ? longs[row] : longBuffer.get(row);
+  }
+
+  double getDouble(int row) {
+    if (type == Type.INTEGER) return getLong(row);
+    return doubles != null ? doubles[row] : doubleBuffer.get(row);
+  }
+
+  int getCode(int row) {
+    return codes != null ? codes[row] : codeBuffer.get(row);
+  }
+
+  String getText(int row) {
+    return dictionary.decode(getCode(row));
+  }
+
+  Value get(int row) {
+    if (tags != null) {
+      if (tags[row] == NoTag) return Value.NA;
+      switch (Types[tags[row]]) {
+        case INTEGER: return new Value.Integer(longs[row]);
+        case DECIMAL: return new Value.Decimal(doubles[row]);
+        default:      return new Value.Text(dictionary.decode(codes[row]));
+      }
+    }
+    if (!isValid(row)) return Value.NA;
+
+    switch (type) {
+      case INTEGER: return new Value.Integer(getLong(row));
+      case DECIMAL: return new Value.Decimal(getDouble(row));
+      default:      return new Value.Text(getText(row));
+    }
+  }
+}
@@ -0,0 +1,135 @@
+package net.degoes.project.dataset1;
+
+import java.util.Arrays;
+
+/**
+ * Appends cells of one type to a growable primitive array, tracking validity as it goes.
+ */
+final class ColumnBuilder {
+  Column.Type type;
+  int size;
+
+  long[] longs;
+  double[] doubles;
+  int[] codes;
+  Dictionary dictionary;
+  long[] validity;
+  boolean nullable;
+
+  /**
+   * Text is encoded with `dictionary`, which builders of successive batches of one column share.
+   */
+  ColumnBuilder(Column.Type type, int capacity, Dictionary dictionary) {
+    this.type = type;
+    this.dictionary = dictionary;
+    capacity = Math.max(capacity, 64);
+    switch (type) {
+      case INTEGER: longs = new long[capacity]; break;
+      case DECIMAL: doubles = new double[capacity]; break;
+      default:      codes = new int[capacity]; break;
+    }
+    validity = Bitmap.allocate(capacity);
+  }
+
+  void appendLong(long value) {
+    ensure();
+    longs[size] = value;
+    Bitmap.set(validity, size++);
+  }
+
+  void appendDouble(double value) {
+    ensure();
+    doubles[size] = value;
+    Bitmap.set(validity, size++);
+  }
+
+  void appendText(String value) {
+    ensure();
+    codes[size] = dictionary.encode(value);
+    Bitmap.set(validity, size++);
+  }
+
+  void appendNA() {
+    ensure();
+    if (codes != null) codes[size] = -1;
+    nullable = true;
+    size++;
+  }
+
+  /**
+   * Appends every cell of `column`, which must have this builder's type. Text is re-encoded into
+   * this builder's dictionary once per distinct code, not once per cell.
+   */
+  void append(Column column) {
+    if (column.type != type) throw new IllegalStateException("Cannot append " + column.type + " cells to a column of " + type);
+
+    int[] translation = null;
+    if (type == Column.Type.TEXT) {
+      translation = new int[column.dictionary.size()];
+      Arrays.fill(translation, -1);
+    }
+    for (int i = 0; i < column.size; i++) {
+      if (!column.isValid(i)) {
+        appendNA();
+        continue;
+      }
+      ensure();
+      switch (type) {
+        case INTEGER: longs[size] = column.getLong(i); break;
+        case DECIMAL: doubles[size] = column.getDouble(i); break;
+        default:
+          int code = column.getCode(i);
+          if (translation[code] < 0) translation[code] = dictionary.encode(column.dictionary.decode(code));
+          codes[size] = translation[code];
+          break;
+      }
+      Bitmap.set(validity, size++);
+    }
+  }
+
+  /**
+   * A column over the first `size` cells that shares the arrays rather than copying them. Later
+   * appends only write beyond those cells, or into grown copies of the arrays, so the column never
+   * changes.
+   */
+  Column snapshot() {
+    long[] bits = nullable ? validity : null;
+    Column column;
+    switch (type) {
+      case INTEGER: column = Column.integers(longs, bits); break;
+      case DECIMAL: column = Column.decimals(doubles, bits); break;
+      default:      column = Column.texts(codes, dictionary, bits); break;
+    }
+    column.size = size;
+    return column;
+  }
+
+  /**
+   * Builds a column over the first `size` cells, copying only if the arrays have spare capacity.
+   */
+  Column build() {
+    long[] bits = nullable ? trim(validity, (size + 63) >>> 6) : null;
+    switch (type) {
+      case INTEGER: return Column.integers(longs.length == size ? longs : Arrays.copyOf(longs, size), bits);
+      case DECIMAL: return Column.decimals(doubles.length == size ? doubles : Arrays.copyOf(doubles, size), bits);
+      default:      return Column.texts(codes.length == size ? codes : Arrays.copyOf(codes, size), dictionary, bits);
+    }
+  }
+
+  private void ensure() {
+    int capacity = type == Column.Type.INTEGER ? longs.length : type == Column.Type.DECIMAL ? doubles.length : codes.length;
+    if (size < capacity) return;
+
+    int grown = capacity + (capacity >> 1);
+    switch (type) {
+      case INTEGER: longs = Arrays.copyOf(longs, grown); break;
+      case DECIMAL: doubles = Arrays.copyOf(doubles, grown); break;
+      default:      codes = Arrays.copyOf(codes, grown); break;
+    }
+    validity = Arrays.copyOf(validity, (grown + 63) >>> 6);
+  }
+
+  private static long[] trim(long[] bits, int words) {
+    return bits.length == words ? bits : Arrays.copyOf(bits, words);
+  }
+}
@@ -0,0 +1,140 @@
+package net.degoes.project.dataset1;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A size-bounded, least-recently-used cache of materialized columns, keyed by the expression
+ * that computed them (see `Expr` for when two expressions are equal). Attach one to a dataset with
+ * `Dataset.withCache`, and datasets derived from it look up every column they materialize here
+ * first, so recomputing the same expressions, such as on every refresh of a dashboard, reads the
+ * columns computed the first time.
+ *
+ * Columns never change once built, so entries only go stale when the data behind them is replaced,
+ * e.g. when a file is rewritten and opened again; `invalidate` drops them. Entries keep the
+ * columns their expressions read alive.
+ */
+public final class ColumnCache {
+  long capacityBytes;
+  long bytes = 0;
+  long hits = 0;
+  long misses = 0;
+  LinkedHashMap<Key, Column> columns = new LinkedHashMap<>(16, 0.75f, true);
+
+  public ColumnCache(long capacityBytes) {
+    if (capacityBytes < 0) throw new IllegalArgumentException("Capacity must not be negative");
+    this.capacityBytes = capacityBytes;
+  }
+
+  // Expressions are evaluated for a number of rows, which is part of the key:
+  static final class Key {
+    Expr expr;
+    int size;
+
+    Key(Expr expr, int size) {
+      this.expr = expr;
+      this.size = size;
+    }
+
+    public boolean equals(Object that) {
+      return that instanceof Key && ((Key) that).size == size && ((Key) that).expr.equals(expr);
+    }
+
+    public int hashCode() {
+      return 31 * expr.hashCode() + size;
+    }
+  }
+
+  synchronized Column get(Expr expr, int size) {
+    Column column = columns.get(new Key(expr, size));
+    if (column == null) misses++;
+    else hits++;
+    return column;
+  }
+
+  synchronized void put(Expr expr, int size, Column column) {
+    long added = bytes(column);
+    if (added > capacityBytes) return;
+
+    Column previous = columns.put(new Key(expr, size), column);
+    if (previous != null) bytes -= bytes(previous);
+    bytes += added;
+
+    Iterator<Column> eldest = columns.values().iterator();
+    while (bytes > capacityBytes) {
+      bytes -= bytes(eldest.next());
+      eldest.remove();
+    }
+  }
+
+  /**
+   * Drops every entry.
+   */
+  public synchronized void invalidate() {
+    columns.clear();
+    bytes = 0;
+  }
+
+  /**
+   * Drops the entries computed from any column of `dataset`, for example after the file it was
+   * opened from has changed.
+   */
+  public synchronized void invalidate(Dataset dataset) {
+    Set<Column> sources = Collections.newSetFromMap(new IdentityHashMap<>());
+    for (Expr expr : dataset.exprs) leaves(expr, sources);
+    if (dataset.materialized != null) {
+      for (Expr expr : dataset.materialized.exprs) leaves(expr, sources);
+    }
+
+    ArrayList<Key> stale = new ArrayList<>();
+    for (Map.Entry<Key, Column> entry : columns.entrySet()) {
+      if (reads(entry.getKey().expr, sources)) stale.add(entry.getKey());
+    }
+    for (Key key : stale) bytes -= bytes(columns.remove(key));
+  }
+
+  public synchronized int size() {
+    return columns.size();
+  }
+
+  public synchronized long bytes() {
+    return bytes;
+  }
+
+  public synchronized long hits() {
+    return hits;
+  }
+
+  public synchronized long misses() {
+    return misses;
+  }
+
+  private static void leaves(Expr expr, Set<Column> columns) {
+    if (expr instanceof Expr.Ref) columns.add(((Expr.Ref) expr).column);
+    else if (expr instanceof Expr.Select) columns.add(((Expr.Select) expr).source.column);
+    else if (expr instanceof Expr.SelectOrNA) columns.add(((Expr.SelectOrNA) expr).source.column);
+    else if (expr instanceof Expr.Binary) {
+      leaves(((Expr.Binary) expr).left, columns);
+      leaves(((Expr.Binary) expr).right, columns);
+    }
+  }
+
+  private static boolean reads(Expr expr, Set<Column> columns) {
+    if (expr instanceof Expr.Ref) return columns.contains(((Expr.Ref) expr).column);
+    if (expr instanceof Expr.Select) return columns.contains(((Expr.Select) expr).source.column);
+    if (expr instanceof Expr.SelectOrNA) return columns.contains(((Expr.SelectOrNA) expr).source.column);
+    if (expr instanceof Expr.Binary) return reads(((Expr.Binary) expr).left, columns) || reads(((Expr.Binary) expr).right, columns);
+    return false;
+  }
+
+  // The heap a cached column holds; text dictionaries are shared with the source, so not counted:
+  private static long bytes(Column column) {
+    long bytes = (column.type == Column.Type.TEXT ? 4L : 8L) * column.size;
+    return column.validity != null ? bytes + 8L * column.validity.length : bytes;
+  }
+}
@@ -0,0 +1,264 @@
+package net.degoes.project.dataset1;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Statistics of one column: the number of NA cells, an estimate of the number of distinct values,
+ * and the minimum and maximum, both for the whole column and per block of `BlockRows` rows (a
+ * zone map). `min` and `max` are NA for text.
+ *
+ * Minimums and maximums are kept raw, as longs: integers as themselves, decimals as their bits,
+ * and text as dictionary codes, which say which strings a block can hold rather than how strings
+ * order. Block ranges leave out NaN, which never satisfies a comparison, so a block without a
+ * comparable cell has an empty range, which matches nothing. The column minimum
+ * and maximum follow `Math.min` and `Math.max` instead, as `Dataset.min` does, so they are NaN if
+ * any cell is.
+ *
+ * Distinct values are counted exactly for text, from the codes in use, and estimated for numbers
+ * with a HyperLogLog sketch of `2^SketchBits` registers, which is within about 2% in general.
+ *
+ * Columns compute their statistics once, on first use (see `Column.stats`). CSV batches compute
+ * them as they are read, and `DatasetFile` stores them, so that files opened later have them
+ * without a pass over their data.
+ */
+public final class ColumnStats {
+  static final int BlockBits = 12;
+  static final int BlockRows = 1 << BlockBits;
+  static final int SketchBits = 11;
+
+  Column.Type type;
+  int size;
+  long nullCount;
+  long nanCount;
+  long distinct;
+  long min;
+  long max;
+
+  long[] blockMins;
+  long[] blockMaxs;
+  int[] blockNulls;
+
+  private ColumnStats(Column.Type type, int size) {
+    this.type = type;
+    this.size = size;
+    int blocks = (size + BlockRows - 1) >>> BlockBits;
+    this.blockMins = new long[blocks];
+    this.blockMaxs = new long[blocks];
+    this.blockNulls = new int[blocks];
+  }
+
+  static ColumnStats of(Column column) {
+    ColumnStats stats = new ColumnStats(column.type, column.size);
+    switch (column.type) {
+      case INTEGER: stats.integers(column); break;
+      case DECIMAL: stats.decimals(column); break;
+      default:      stats.texts(column); break;
+    }
+    return stats;
+  }
+
+  public long nullCount() {
+    return nullCount;
+  }
+
+  public long distinctCount() {
+    return distinct;
+  }
+
+  public Value min() {
+    return value(min);
+  }
+
+  public Value max() {
+    return value(max);
+  }
+
+  public int blocks() {
+    return blockMins.length;
+  }
+
+  private Value value(long raw) {
+    if (nullCount == size) return Value.NA;
+
+    switch (type) {
+      case INTEGER: return new Value.Integer(raw);
+      case DECIMAL: return new Value.Decimal(Double.longBitsToDouble(raw));
+      default:      return Value.NA;
+    }
+  }
+
+  /**
+   * Whether some cell of `block` may compare to `value` in one of the orderings `accepts` (see
+   * `Predicate`). Text is only ever compared for equality, as codes.
+   */
+  boolean mayMatch(int block, int accepts, long longValue, double doubleValue, boolean integral) {
+    long lo = blockMins[block], hi = blockMaxs[block];
+    int possible = 0;
+    if (type == Column.Type.DECIMAL) {
+      double min = Double.longBitsToDouble(lo), max = Double.longBitsToDouble(hi);
+      if (min < doubleValue) possible |= Predicate.Less;
+      if (min <= doubleValue && doubleValue <= max) possible |= Predicate.Equal;
+      if (max > doubleValue) possible |= Predicate.Greater;
+    } else if (type == Column.Type.INTEGER && !integral) {
+      // Integers compared with a decimal, as `Predicate` compares them:
+      if (lo > hi) return false;
+      if ((double) lo < doubleValue) possible |= Predicate.Less;
+      if ((double) lo <= doubleValue && doubleValue <= (double) hi) possible |= Predicate.Equal;
+      if ((double) hi > doubleValue) possible |= Predicate.Greater;
+    } else {
+      if (lo > hi) return false;
+      if (lo < longValue || (type == Column.Type.TEXT && hi > longValue)) possible |= Predicate.Less;
+      if (lo <= longValue && longValue <= hi) possible |= Predicate.Equal;
+      if (hi > longValue || (type == Column.Type.TEXT && lo < longValue)) possible |= Predicate.Greater;
+    }
+    return (accepts & possible) != 0;
+  }
+
+  private void integers(Column column) {
+    byte[] sketch = new byte[1 << SketchBits];
+    min = Long.MAX_VALUE;
+    max = Long.MIN_VALUE;
+    for (int b = 0; b < blockMins.length; b++) {
+      long lo = Long.MAX_VALUE, hi = Long.MIN_VALUE;
+      int nulls = 0;
+      for (int i = b << BlockBits, end = Math.min(size, i + BlockRows); i < end; i++) {
+        if (!column.isValid(i)) {
+          nulls++;
+          continue;
+        }
+        long value = column.getLong(i);
+        lo = Math.min(lo, value);
+        hi = Math.max(hi, value);
+        add(sketch, value);
+      }
+      record(b, lo, hi, nulls);
+      min = Math.min(min, lo);
+      max = Math.max(max, hi);
+    }
+    distinct = Math.min(estimate(sketch), size - nullCount);
+  }
+
+  private void decimals(Column column) {
+    byte[] sketch = new byte[1 << SketchBits];
+    double min = Double.POSITIVE_INFINITY, max = Double.NEGATIVE_INFINITY;
+    for (int b = 0; b < blockMins.length; b++) {
+      double lo = Double.POSITIVE_INFINITY, hi = Double.NEGATIVE_INFINITY;
+      int nulls = 0;
+      for (int i = b << BlockBits, end = Math.min(size, i + BlockRows); i < end; i++) {
+        if (!column.isValid(i)) {
+          nulls++;
+          continue;
+        }
+        double value = column.getDouble(i);
+        add(sketch, Keys.bits(value));
+        if (value != value) {
+          nanCount++;
+          continue;
+        }
+        lo = Math.min(lo, value);
+        hi = Math.max(hi, value);
+      }
+      // An empty range is recorded as (NaN, NaN), which compares false with everything:
+      boolean empty = lo > hi;
+      record(b, Double.doubleToRawLongBits(empty ? Double.NaN : lo), Double.doubleToRawLongBits(empty ? Double.NaN : hi), nulls);
+      min = Math.min(min, lo);
+      max = Math.max(max, hi);
+    }
+    if (nanCount > 0) min = max = Double.NaN;
+    this.min = Double.doubleToRawLongBits(min);
+    this.max = Double.doubleToRawLongBits(max);
+    distinct = Math.min(estimate(sketch), size - nullCount);
+  }
+
+  private void texts(Column column) {
+    boolean[] used = new boolean[column.dictionary.size()];
+    min = Long.MAX_VALUE;
+    max = Long.MIN_VALUE;
+    for (int b = 0; b < blockMins.length; b++) {
+      long lo = Long.MAX_VALUE, hi = Long.MIN_VALUE;
+      int nulls = 0;
+      for (int i = b << BlockBits, end = Math.min(size, i + BlockRows); i < end; i++) {
+        if (!column.isValid(i)) {
+          nulls++;
+          continue;
+        }
+        int code = column.getCode(i);
+        lo = Math.min(lo, code);
+        hi = Math.max(hi, code);
+        used[code] = true;
+      }
+      record(b, lo, hi, nulls);
+      min = Math.min(min, lo);
+      max = Math.max(max, hi);
+    }
+    for (boolean u : used) distinct += u ? 1 : 0;
+  }
+
+  private void record(int block, long lo, long hi, int nulls) {
+    blockMins[block] = lo;
+    blockMaxs[block] = hi;
+    blockNulls[block] = nulls;
+    nullCount += nulls;
+  }
+
+  private static void add(byte[] sketch, long value) {
+    // The finalizer of MurmurHash3, so that every bit of the value affects every bit of the hash:
+    long hash = value;
+    hash = (hash ^ (hash >>> 33)) * 0xFF51AFD7ED558CCDL;
+    hash = (hash ^ (hash >>> 33)) * 0xC4CEB9FE1A85EC53L;
+    hash ^= hash >>> 33;
+
+    int register = (int) (hash >>> (64 - SketchBits));
+    int rank = Long.numberOfLeadingZeros((hash << SketchBits) | (1L << (SketchBits - 1))) + 1;
+    if (rank > sketch[register]) sketch[register] = (byte) rank;
+  }
+
+  private static long estimate(byte[] sketch) {
+    int m = sketch.length, zeros = 0;
+    double sum = 0;
+    for (byte rank : sketch) {
+      sum += Math.scalb(1.0, -rank);
+      if (rank == 0) zeros++;
+    }
+    double estimate = 0.7213 / (1 + 1.079 / m) * m * m / sum;
+    // Small cardinalities are better estimated by counting empty registers:
+    if (estimate <= 2.5 * m && zeros > 0) estimate = m * Math.log((double) m / zeros);
+    return Math.round(estimate);
+  }
+
+  // Stored, little-endian: null, NaN and distinct counts, the column minimum and maximum, the number of blocks, then per block its minimum, maximum and null count.
+  long bytes() {
+    return 6 * 8L + 24L * blockMins.length;
+  }
+
+  void write(DatasetFile.Output out) throws IOException {
+    out.putLong(nullCount);
+    out.putLong(nanCount);
+    out.putLong(distinct);
+    out.putLong(min);
+    out.putLong(max);
+    out.putLong(blockMins.length);
+    for (int b = 0; b < blockMins.length; b++) {
+      out.putLong(blockMins[b]);
+      out.putLong(blockMaxs[b]);
+      out.putLong(blockNulls[b]);
+    }
+  }
+
+  static ColumnStats read(ByteBuffer buffer, Column.Type type, int size) throws IOException {
+    ColumnStats stats = new ColumnStats(type, size);
+    stats.nullCount = buffer.getLong();
+    stats.nanCount = buffer.getLong();
+    stats.distinct = buffer.getLong();
+    stats.min = buffer.getLong();
+    stats.max = buffer.getLong();
+    if (buffer.getLong() != stats.blockMins.length) throw new IOException("Column statistics do not match the number of rows");
+    for (int b = 0; b < stats.blockMins.length; b++) {
+      stats.blockMins[b] = buffer.getLong();
+      stats.blockMaxs[b] = buffer.getLong();
+      stats.blockNulls[b] = (int) buffer.getLong();
+    }
+    return stats;
+  }
+}
@@ -0,0 +1,237 @@
+package net.degoes.project.dataset1;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.nio.DoubleBuffer;
+import java.nio.LongBuffer;
+import java.util.ArrayList;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Compiles numeric expression trees into a single `MethodHandle` loop, built from combinators.
+ * Column arrays (or mapped buffers) are parameters of the loop rather than constants, so one
+ * compiled kernel serves every expression with the same shape, such as `((L + L) / L)`. Once a
+ * kernel has been invoked often enough, the JVM customizes it and the JIT inlines the whole tree
+ * into a tight, monomorphic primitive loop.
+ *
+ * Shapes are unbounded, since trees may nest to any depth, so at most `MaxKernels` kernels are
+ * kept. Kernels are never evicted, as each holds code the JIT has invested in; once the cache is
+ * full, expressions of new shapes are interpreted instead.
+ *
+ * Kernels compute values only; validity of nullable expressions is evaluated by `Evaluator`.
+ */
+final class Compiler {
+  // Below this many rows, looking up and dispatching to a kernel costs more than interpreting:
+  static final int MinRows = 1024;
+
+  // Far more shapes than the queries of a program spell out:
+  static final int MaxKernels = 1024;
+
+  static final ConcurrentHashMap<String, MethodHandle> kernels = new ConcurrentHashMap<>();
+
+  private static final MethodHandles.Lookup lookup = MethodHandles.lookup();
+
+  static boolean canCompile(Expr expr, int rows) {
+    return rows >= MinRows && expr instanceof Expr.Binary && expr.isNumeric() && compilable(expr);
+  }
+
+  private static boolean compilable(Expr expr) {
+    // Rows of mixed cells are computed by their tags, which kernels do not read:
+    if (expr.mixed) return false;
+    if (expr instanceof Expr.Binary) return compilable(((Expr.Binary) expr).left) && compilable(((Expr.Binary) expr).right);
+    return expr instanceof Expr.Ref || expr instanceof Expr.Select || expr instanceof Expr.NA;
+  }
+
+  /**
+   * Resolves the kernel of a numeric expression and its inputs once, returning a task that
+   * evaluates any rows `[from, to)` of it into `out`, which must be a `long[]` for integer
+   * expressions and a `double[]` for decimal ones. The task may run on several threads at once.
+   */
+  static Execution.RangeTask bind(Expr expr, Object out) {
+    StringBuilder shape = new StringBuilder();
+    ArrayList<Object> inputs = new ArrayList<>();
+    describe(expr, shape, inputs);
+
+    MethodHandle cached = kernels.get(shape.toString());
+    if (cached == null && kernels.size() >= MaxKernels) return (from, to) -> interpret(expr, out, from, to);
+
+    MethodHandle kernel = cached != null ? cached : kernels.computeIfAbsent(shape.toString(), ignored -> compile(expr, inputs.size()));
+    Object[] arguments = inputs.toArray();
+    return (from, to) -> {
+      try {
+        kernel.invokeExact(out, from, to, arguments);
+      } catch (RuntimeException | Error ex) {
+        throw ex;
+      } catch (Throwable t) {
+        throw new IllegalStateException(t);
+      }
+    };
+  }
+
+  private static void interpret(Expr expr, Object out, int from, int to) {
+    if (out instanceof long[]) {
+      long[] longs = (long[]) out;
+      for (int i = from; i < to; i++) longs[i] = expr.getLong(i);
+    } else {
+      double[] doubles = (double[]) out;
+      for (int i = from; i < to; i++) doubles[i] = expr.getDouble(i);
+    }
+  }
+
+  private static void describe(Expr expr, StringBuilder shape, ArrayList<Object> inputs) {
+    if (expr instanceof Expr.LongRef) {
+      shape.append('L');
+      inputs.add(((Expr.LongRef) expr).longs);
+    } else if (expr instanceof Expr.DoubleRef) {
+      shape.append('D');
+      inputs.add(((Expr.DoubleRef) expr).doubles);
+    } else if (expr instanceof Expr.LongBufferRef) {
+      shape.append('l');
+      inputs.add(((Expr.LongBufferRef) expr).longs);
+    } else if (expr instanceof Expr.DoubleBufferRef) {
+      shape.append('d');
+      inputs.add(((Expr.DoubleBufferRef) expr).doubles);
+    } else if (expr instanceof Expr.Select) {
+      // A gathered leaf is its column followed by the selection vector:
+      describe(((Expr.Select) expr).source, shape, inputs);
+      shape.append('@');
+      inputs.add(((Expr.Select) expr).rows);
+    } else if (expr instanceof Expr.NA) {
+      shape.append('N');
+    } else {
+      Expr.Binary binary = (Expr.Binary) expr;
+      shape.append('(');
+      describe(binary.left, shape, inputs);
+      shape.append(' ').append(binary.symbol).append(' ');
+      describe(binary.right, shape, inputs);
+      shape.append(')');
+    }
+  }
+
+  private static MethodHandle compile(Expr expr, int arity) {
+    // The cell handle has type (T0, ..., Tn-1, int row) -> long | double:
+    Class<?>[] params = new Class<?>[arity + 1];
+    collectParams(expr, params, new int[1]);
+    params[arity] = int.class;
+
+    MethodHandle cell = cell(expr, params, new int[1]);
+    Class<?> result = cell.type().returnType();
+    Class<?> outClass = result == long.class ? long[].class : double[].class;
+
+    // body: (int i, out, int from, int to, T0, ..., Tn-1) -> void, storing out[i] = cell(..., i)
+    MethodHandle store = MethodHandles.collectArguments(MethodHandles.arrayElementSetter(outClass), 2, cell);
+    MethodType loopType = MethodType.methodType(void.class, outClass, int.class, int.class).appendParameterTypes(slice(params, arity));
+    int[] reorder = new int[arity + 3];
+    reorder[0] = 1;
+    reorder[1] = 0;
+    for (int k = 0; k < arity; k++) reorder[k + 2] = k + 4;
+    reorder[arity + 2] = 0;
+    MethodHandle body = MethodHandles.permuteArguments(store, loopType.insertParameterTypes(0, int.class), reorder);
+
+    MethodHandle start = MethodHandles.permuteArguments(MethodHandles.identity(int.class), loopType.changeReturnType(int.class), 1);
+    MethodHandle end   = MethodHandles.permuteArguments(MethodHandles.identity(int.class), loopType.changeReturnType(int.class), 2);
+
+    MethodHandle loop = MethodHandles.countedLoop(start, end, null, body);
+
+    MethodType erased = MethodType.methodType(void.class, Object.class, int.class, int.class);
+    for (int k = 0; k < arity; k++) erased = erased.appendParameterTypes(Object.class);
+    return loop.asType(erased).asSpreader(Object[].class, arity);
+  }
+
+  private static void collectParams(Expr expr, Class<?>[] params, int[] next) {
+    if (expr instanceof Expr.LongRef) params[next[0]++] = long[].class;
+    else if (expr instanceof Expr.DoubleRef) params[next[0]++] = double[].class;
+    else if (expr instanceof Expr.LongBufferRef) params[next[0]++] = LongBuffer.class;
+    else if (expr instanceof Expr.DoubleBufferRef) params[next[0]++] = DoubleBuffer.class;
+    else if (expr instanceof Expr.Select) {
+      collectParams(((Expr.Select) expr).source, params, next);
+      params[next[0]++] = int[].class;
+    }
+    else if (expr instanceof Expr.Binary) {
+      collectParams(((Expr.Binary) expr).left, params, next);
+      collectParams(((Expr.Binary) expr).right, params, next);
+    }
+  }
+
+  private static MethodHandle cell(Expr expr, Class<?>[] params, int[] next) {
+    MethodType cellType = MethodType.methodType(void.class, params);
+    int row = params.length - 1;
+
+    if (expr instanceof Expr.Ref) {
+      int k = next[0]++;
+      MethodHandle get = getter(params[k]);
+      return MethodHandles.permuteArguments(get, cellType.changeReturnType(get.type().returnType()), k, row);
+    }
+    if (expr instanceof Expr.Select) {
+      // (T, int[] rows, int row) -> get(T, rows[row]):
+      int k = next[0];
+      next[0] += 2;
+      MethodHandle get = MethodHandles.collectArguments(getter(params[k]), 1, MethodHandles.arrayElementGetter(int[].class));
+      return MethodHandles.permuteArguments(get, cellType.changeReturnType(get.type().returnType()), k, k + 1, row);
+    }
+    if (expr instanceof Expr.NA) {
+      return MethodHandles.dropArguments(MethodHandles.constant(long.class, 0L), 0, params);
+    }
+
+    Expr.Binary binary = (Expr.Binary) expr;
+    Class<?> type = binary.type == Column.Type.INTEGER ? long.class : double.class;
+
+    MethodHandle left  = cell(binary.left, params, next);
+    MethodHandle right = cell(binary.right, params, next);
+    left  = left.asType(left.type().changeReturnType(type));
+    right = right.asType(right.type().changeReturnType(type));
+
+    // (P, P) -> type, then merge both copies of the parameter list P into one:
+    MethodHandle combined = MethodHandles.collectArguments(operator(binary.symbol, type), 0, left);
+    combined = MethodHandles.collectArguments(combined, params.length, right);
+    int[] reorder = new int[params.length * 2];
+    for (int k = 0; k < params.length; k++) {
+      reorder[k] = k;
+      reorder[k + params.length] = k;
+    }
+    return MethodHandles.permuteArguments(combined, cellType.changeReturnType(type), reorder);
+  }
+
+  private static MethodHandle getter(Class<?> input) {
+    if (input.isArray()) return MethodHandles.arrayElementGetter(input);
+    try {
+      Class<?> element = input == LongBuffer.class ? long.class : double.class;
+      return lookup.findVirtual(input, "get", MethodType.methodType(element, int.class));
+    } catch (ReflectiveOperationException ex) {
+      throw new IllegalStateException(ex);
+    }
+  }
+
+  private static MethodHandle operator(String symbol, Class<?> type) {
+    String name;
+    switch (symbol) {
+      case "+": name = "plus"; break;
+      case "-": name = "minus"; break;
+      case "*": name = "times"; break;
+      case "/": name = "divide"; break;
+      default: throw new IllegalArgumentException(symbol);
+    }
+    try {
+      return lookup.findStatic(Compiler.class, name, MethodType.methodType(type, type, type));
+    } catch (ReflectiveOperationException ex) {
+      throw new IllegalStateException(ex);
+    }
+  }
+
+  private static Class<?>[] slice(Class<?>[] params, int length) {
+    Class<?>[] result = new Class<?>[length];
+    System.arraycopy(params, 0, result, 0, length);
+    return result;
+  }
+
+  private static long plus(long left, long right) { return left + right; }
+  private static long minus(long left, long right) { return left - right; }
+  private static long times(long left, long right) { return left * right; }
+  private static long divide(long left, long right) { return right == 0 ? 0 : left / right; }
+
+  private static double plus(double left, double right) { return left + right; }
+  private static double minus(double left, double right) { return left - right; }
+  private static double times(double left, double right) { return left * right; }
+  private static double divide(double left, double right) { return left / right; }
+}
@@ -0,0 +1,437 @@
+package net.degoes.project.dataset1;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+
+/**
+ * Streams a CSV file with a header row into `Dataset`s. The file is read through a `FileChannel`
+ * into one fixed-size buffer, and numbers are parsed directly from its bytes, so the only strings
+ * created are the cells of text columns.
+ *
+ * Without an explicit schema, column types are inferred from the first rows: integer if every
+ * sampled cell is an integer, decimal if every cell is a number, and text otherwise. Empty cells,
+ * and cells that do not parse as their column's type, are NA.
+ *
+ * `read` loads the whole file; `batches` yields datasets of at most `batchRows` rows each, so
+ * files larger than the heap can be processed batch by batch (see `ChunkedDataset`).
+ */
+public final class CsvReader {
+  Path path;
+  Schema schema = null;
+  byte delimiter = ',';
+  int bufferBytes = 1 << 20;
+  int batchRows = 64 * 1024;
+  int inferenceRows = 1000;
+
+  public CsvReader(Path path) {
+    this.path = path;
+  }
+
+  private CsvReader copy() {
+    CsvReader reader = new CsvReader(path);
+    reader.schema = schema;
+    reader.delimiter = delimiter;
+    reader.bufferBytes = bufferBytes;
+    reader.batchRows = batchRows;
+    reader.inferenceRows = inferenceRows;
+    return reader;
+  }
+
+  /**
+   * Reads only the columns of `schema`, in its order, with its types.
+   */
+  public CsvReader withSchema(Schema schema) {
+    CsvReader reader = copy();
+    reader.schema = schema;
+    return reader;
+  }
+
+  public CsvReader withDelimiter(char delimiter) {
+    CsvReader reader = copy();
+    reader.delimiter = (byte) delimiter;
+    return reader;
+  }
+
+  public CsvReader withBufferBytes(int bufferBytes) {
+    CsvReader reader = copy();
+    reader.bufferBytes = bufferBytes;
+    return reader;
+  }
+
+  public CsvReader withBatchRows(int batchRows) {
+    CsvReader reader = copy();
+    reader.batchRows = batchRows;
+    return reader;
+  }
+
+  public Schema schema() throws IOException {
+    return schema != null ? schema : infer();
+  }
+
+  public Dataset read() throws IOException {
+    try (Batches batches = new Batches(schema(), Integer.MAX_VALUE, batchRows)) {
+      return batches.hasNext() ? batches.next() : Dataset.fromColumns(new String[0], new Column[0], 0);
+    }
+  }
+
+  /**
+   * Returns the file as consecutive datasets of at most `batchRows` rows. Close the iterator to
+   * release the file if it is not consumed to the end.
+   */
+  public Batches batches() throws IOException {
+    return new Batches(schema(), batchRows, batchRows);
+  }
+
+  public final class Batches implements ChunkedDataset.Batches {
+    Schema schema;
+    Parser parser;
+    int[] columnOf;
+    int maxRows;
+    int capacity;
+    boolean pending;
+    boolean done;
+
+    Batches(Schema schema, int maxRows, int capacity) throws IOException {
+      this.schema = schema;
+      this.parser = new Parser(path, delimiter, bufferBytes);
+      this.maxRows = maxRows;
+      this.capacity = capacity;
+      try {
+        this.columnOf = parser.readHeader(schema);
+      } catch (IOException | RuntimeException ex) {
+        parser.close();
+        throw ex;
+      }
+    }
+
+    public boolean hasNext() {
+      if (!pending && !done) {
+        try {
+          pending = parser.nextRecord();
+        } catch (IOException ex) {
+          throw new UncheckedIOException(ex);
+        }
+        if (!pending) {
+          done = true;
+          close();
+        }
+      }
+      return pending;
+    }
+
+    public Dataset next() {
+      if (!hasNext()) throw new NoSuchElementException();
+
+      ColumnBuilder[] builders = new ColumnBuilder[schema.size()];
+      for (int c = 0; c < builders.length; c++) builders[c] = new ColumnBuilder(schema.types[c], capacity, schema.types[c] == Column.Type.TEXT ? new Dictionary() : null);
+
+      int rows = 0;
+      try {
+        do {
+          parser.append(columnOf, builders);
+          pending = false;
+          rows++;
+        } while (rows < maxRows && hasNext());
+      } catch (RuntimeException ex) {
+        close();
+        throw ex;
+      }
+
+      Column[] columns = new Column[builders.length];
+      for (int c = 0; c < columns.length; c++) {
+        columns[c] = builders[c].build();
+        // While the batch is still in cache:
+        columns[c].stats();
+      }
+      return Dataset.fromColumns(schema.names.clone(), columns, rows);
+    }
+
+    public void close() {
+      try {
+        parser.close();
+      } catch (IOException ex) {
+        throw new UncheckedIOException(ex);
+      }
+    }
+  }
+
+  private Schema infer() throws IOException {
+    try (Parser parser = new Parser(path, delimiter, bufferBytes)) {
+      String[] names = parser.headerNames();
+
+      // Per column: null while only empty cells are seen, then the widest of INTEGER < DECIMAL < TEXT.
+      Column.Type[] types = new Column.Type[names.length];
+      int rows = 0;
+      while (rows < inferenceRows && parser.nextRecord()) {
+        for (int i = 0; i < names.length && i < parser.fields; i++) {
+          Column.Type seen = parser.classify(i);
+          if (seen != null && (types[i] == null || seen.ordinal() > types[i].ordinal())) types[i] = seen;
+        }
+        rows++;
+      }
+
+      for (int i = 0; i < types.length; i++) {
+        if (types[i] == null) types[i] = Column.Type.TEXT;
+      }
+      return new Schema(names, types);
+    }
+  }
+
+  /**
+   * Splits the bytes of a channel into records and fields. Field boundaries of the current record
+   * index into `bytes` and stay valid until the next call to `nextRecord`.
+   */
+  static final class Parser implements Closeable {
+    FileChannel channel;
+    byte delimiter;
+    byte[] bytes;
+    int position = 0;
+    int limit = 0;
+    boolean eof = false;
+
+    int fields = 0;
+    int[] starts = new int[16];
+    int[] ends = new int[16];
+    boolean[] quoted = new boolean[16];
+
+    long parsedLong;
+    double parsedDouble;
+
+    Parser(Path path, byte delimiter, int bufferBytes) throws IOException {
+      this.channel = FileChannel.open(path, StandardOpenOption.READ);
+      this.delimiter = delimiter;
+      this.bytes = new byte[bufferBytes];
+    }
+
+    public void close() throws IOException {
+      channel.close();
+    }
+
+    String[] headerNames() throws IOException {
+      if (!nextRecord()) return new String[0];
+      String[] names = new String[fields];
+      for (int i = 0; i < fields; i++) names[i] = text(i);
+      return names;
+    }
+
+    /**
+     * Reads the header row and maps each of its columns to a column of `schema`, or -1.
+     */
+    int[] readHeader(Schema schema) throws IOException {
+      String[] names = headerNames();
+      int[] columnOf = new int[names.length];
+      boolean[] found = new boolean[schema.size()];
+      for (int i = 0; i < names.length; i++) {
+        int c = schema.indexOf(names[i]);
+        // Only the first of duplicate header names is read:
+        columnOf[i] = c >= 0 && !found[c] ? c : -1;
+        if (c >= 0) found[c] = true;
+      }
+      for (int c = 0; c < found.length; c++) {
+        if (!found[c]) throw new IllegalArgumentException("CSV file has no column " + schema.names[c]);
+      }
+      return columnOf;
+    }
+
+    void append(int[] columnOf, ColumnBuilder[] builders) {
+      for (int i = 0; i < columnOf.length; i++) {
+        int c = columnOf[i];
+        if (c < 0) continue;
+
+        ColumnBuilder builder = builders[c];
+        if (i >= fields || isEmpty(i)) builder.appendNA();
+        else if (builder.type == Column.Type.INTEGER) {
+          if (parseLong(i)) builder.appendLong(parsedLong); else builder.appendNA();
+        } else if (builder.type == Column.Type.DECIMAL) {
+          if (parseDouble(i)) builder.appendDouble(parsedDouble); else builder.appendNA();
+        } else builder.appendText(text(i));
+      }
+    }
+
+    Column.Type classify(int field) {
+      if (isEmpty(field)) return null;
+      if (parseLong(field)) return Column.Type.INTEGER;
+      if (parseDouble(field)) return Column.Type.DECIMAL;
+      return Column.Type.TEXT;
+    }
+
+    /**
+     * Advances to the next non-blank record, refilling the buffer as needed. Returns false at end
+     * of file.
+     */
+    boolean nextRecord() throws IOException {
+      while (true) {
+        if (eof && position >= limit) return false;
+        if (scan()) {
+          if (fields == 1 && isEmpty(0)) continue;
+          return true;
+        }
+        fill();
+      }
+    }
+
+    // Scans one record from `position`, returning false if the buffer ends before the record does.
+    private boolean scan() {
+      fields = 0;
+      int i = position, start = position;
+      boolean inQuotes = false, wasQuoted = false;
+      while (i < limit) {
+        byte b = bytes[i];
+        if (inQuotes) {
+          if (b == '"') {
+            if (i + 1 < limit && bytes[i + 1] == '"') i++;
+            else if (i + 1 == limit && !eof) return false;
+            else inQuotes = false;
+          }
+        } else if (b == '"') {
+          inQuotes = true;
+          wasQuoted = true;
+        } else if (b == delimiter) {
+          field(start, i, wasQuoted);
+          start = i + 1;
+          wasQuoted = false;
+        } else if (b == '\n') {
+          field(start, i, wasQuoted);
+          position = i + 1;
+          return true;
+        }
+        i++;
+      }
+      if (!eof) return false;
+
+      // The last record has no trailing newline:
+      field(start, limit, wasQuoted);
+      position = limit;
+      return true;
+    }
+
+    private void field(int start, int end, boolean wasQuoted) {
+      if (fields == starts.length) {
+        starts = Arrays.copyOf(starts, fields * 2);
+        ends = Arrays.copyOf(ends, fields * 2);
+        quoted = Arrays.copyOf(quoted, fields * 2);
+      }
+      if (end > start && bytes[end - 1] == '\r') end--;
+      while (start < end && bytes[start] == ' ') start++;
+      while (end > start && bytes[end - 1] == ' ') end--;
+      if (wasQuoted && end - start >= 2 && bytes[start] == '"' && bytes[end - 1] == '"') {
+        start++;
+        end--;
+      }
+      starts[fields] = start;
+      ends[fields] = end;
+      quoted[fields] = wasQuoted;
+      fields++;
+    }
+
+    // Moves the unread tail to the front of the buffer (growing it for oversized records) and reads more.
+    private void fill() throws IOException {
+      if (position > 0) {
+        System.arraycopy(bytes, position, bytes, 0, limit - position);
+        limit -= position;
+        position = 0;
+      } else if (limit == bytes.length) {
+        bytes = Arrays.copyOf(bytes, bytes.length * 2);
+      }
+
+      ByteBuffer buffer = ByteBuffer.wrap(bytes, limit, bytes.length - limit);
+      int read = channel.read(buffer);
+      if (read < 0) eof = true;
+      else limit += read;
+    }
+
+    boolean isEmpty(int field) {
+      return starts[field] == ends[field] && !quoted[field];
+    }
+
+    String text(int field) {
+      int start = starts[field], end = ends[field];
+      String text = new String(bytes, start, end - start, StandardCharsets.UTF_8);
+      return quoted[field] ? text.replace("\"\"", "\"") : text;
+    }
+
+    boolean parseLong(int field) {
+      int i = starts[field], end = ends[field];
+      if (i == end) return false;
+
+      boolean negative = bytes[i] == '-';
+      if (negative || bytes[i] == '+') i++;
+      if (i == end) return false;
+
+      // Accumulated negatively, since Long.MIN_VALUE has no positive counterpart; numbers that
+      // overflow are not longs, and are read as decimals instead:
+      long value = 0;
+      for (; i < end; i++) {
+        int digit = bytes[i] - '0';
+        if (digit < 0 || digit > 9) return false;
+        if (value < Long.MIN_VALUE / 10 || (value == Long.MIN_VALUE / 10 && digit > -(Long.MIN_VALUE % 10))) return false;
+        value = value * 10 - digit;
+      }
+      if (!negative && value == Long.MIN_VALUE) return false;
+      parsedLong = negative ? value : -value;
+      return true;
+    }
+
+    private static final double[] PowersOfTen = {
+      1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+      1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+
+    /**
+     * Parses `[+-]digits[.digits][(e|E)[+-]digits]`. When the mantissa fits in 53 bits and the
+     * exponent is within 22, one exact multiply or divide gives the correctly rounded result;
+     * otherwise, which is rare, the field is handed to `Double.parseDouble`.
+     */
+    boolean parseDouble(int field) {
+      int start = starts[field], i = start, end = ends[field];
+      if (i == end) return false;
+
+      boolean negative = bytes[i] == '-';
+      if (negative || bytes[i] == '+') i++;
+
+      long mantissa = 0;
+      int digits = 0, exponent = 0;
+      boolean any = false, exact = true;
+      for (; i < end && bytes[i] >= '0' && bytes[i] <= '9'; i++) {
+        any = true;
+        if (digits < 18) { mantissa = mantissa * 10 + (bytes[i] - '0'); if (mantissa > 0) digits++; }
+        else { exponent++; exact = false; }
+      }
+      if (i < end && bytes[i] == '.') {
+        for (i++; i < end && bytes[i] >= '0' && bytes[i] <= '9'; i++) {
+          any = true;
+          if (digits < 18) { mantissa = mantissa * 10 + (bytes[i] - '0'); if (mantissa > 0) digits++; exponent--; }
+          else exact = false;
+        }
+      }
+      if (!any) return false;
+
+      if (i < end && (bytes[i] == 'e' || bytes[i] == 'E')) {
+        i++;
+        boolean negativeExponent = i < end && bytes[i] == '-';
+        if (i < end && (bytes[i] == '-' || bytes[i] == '+')) i++;
+        if (i == end) return false;
+        int e = 0;
+        for (; i < end && bytes[i] >= '0' && bytes[i] <= '9'; i++) e = Math.min(e * 10 + (bytes[i] - '0'), 100_000);
+        exponent += negativeExponent ? -e : e;
+      }
+      if (i != end) return false;
+
+      if (exact && mantissa < (1L << 53) && exponent >= -22 && exponent <= 22) {
+        double value = exponent >= 0 ? mantissa * PowersOfTen[exponent] : mantissa / PowersOfTen[-exponent];
+        parsedDouble = negative ? -value : value;
+      } else {
+        parsedDouble = Double.parseDouble(new String(bytes, start, end - start, StandardCharsets.ISO_8859_1));
+      }
+      return true;
+    }
+  }
+}
@@ -1,126 +1,338 @@
 package net.degoes.project.dataset1;
 
-import org.openjdk.jmh.annotations.*;
-import org.openjdk.jmh.infra.Blackhole;
-import java.util.concurrent.TimeUnit;
-import java.util.function.BinaryOperator;
-import java.util.concurrent.atomic.AtomicReference;
+import java.util.LinkedHashMap;
 import zio.Chunk;
-import scala.util.Random;
 import io.vavr.collection.Map;
 import io.vavr.collection.HashMap;
 
 public class Dataset {
-  Chunk<Row> rows;
-  
+  String[] names;
+  Expr[] exprs;
+  int size;
+  Execution execution = Execution.Sequential;
+
+  Dataset materialized;
+
   public Dataset(Chunk<Row> rows) {
-    this.rows = rows;
+    int size = rows.length();
+    Schema schema = size > 0 ? rows.apply(0).schema : null;
+    for (int i = 1; i < size && schema != null; i++) {
+      if (rows.apply(i).schema != schema) schema = null;
+    }
+
+    if (schema != null) {
+      // Rows that share a schema are read slot by slot:
+      this.names = schema.names.clone();
+      this.exprs = new Expr[names.length];
+      Value[] cells = new Value[size];
+      for (int slot = 0; slot < names.length; slot++) {
+        for (int i = 0; i < size; i++) cells[i] = rows.apply(i).values[slot];
+        exprs[slot] = Expr.ref(Column.of(cells));
+      }
+    } else {
+      LinkedHashMap<String, Value[]> cells = new LinkedHashMap<>();
+      for (int i = 0; i < size; i++) {
+        int index = i;
+        rows.apply(i).forEach((name, value) ->
+          cells.computeIfAbsent(name, ignored -> new Value[size])[index] = value
+        );
+      }
+
+      this.names = cells.keySet().toArray(new String[0]);
+      this.exprs = new Expr[names.length];
+      for (int i = 0; i < names.length; i++) exprs[i] = Expr.ref(Column.of(cells.get(names[i])));
+    }
+    this.size = size;
+    this.materialized = this;
   }
 
-  public Dataset apply(Field field) {
-    return new Dataset(
-      rows.map(row -> {
-        if (row.map.containsKey(field.name))
-          return new Row(HashMap.of(field.name, row.apply(field)));
-        else return new Row(HashMap.empty());
-      })
-    );
+  Dataset(String[] names, Expr[] exprs, int size, Execution execution) {
+    this.names = names;
+    this.exprs = exprs;
+    this.size = size;
+    this.execution = execution;
   }
 
-  public Dataset times(Dataset that) {
-    return binary(that, "*", (left, right) -> {
-      if (left instanceof Value.Integer && right instanceof Value.Integer)
-        return new Value.Integer(((Value.Integer) left).value * ((Value.Integer) right).value);
+  static Dataset fromColumns(String[] names, Column[] columns, int size) {
+    Expr[] exprs = new Expr[columns.length];
+    for (int i = 0; i < columns.length; i++) exprs[i] = Expr.ref(columns[i]);
 
-      if (left instanceof Value.Integer && right instanceof Value.Decimal)
-        return new Value.Decimal(((Value.Integer) left).value * ((Value.Decimal) right).value);
+    Dataset dataset = new Dataset(names, exprs, size, Execution.Sequential);
+    dataset.materialized = dataset;
+    return dataset;
+  }
 
-      if (left instanceof Value.Decimal && right instanceof Value.Integer)
-        return new Value.Decimal(((Value.Decimal) left).value * ((Value.Integer) right).value);
+  public static Dataset of(Field field, long[] values) {
+    return new Dataset(new String[]{field.name}, new Expr[]{Expr.ref(Column.integers(values))}, values.length, Execution.Sequential);
+  }
 
-      if (left instanceof Value.Decimal && right instanceof Value.Decimal)
-        return new Value.Decimal(((Value.Decimal) left).value * ((Value.Decimal) right).value);
+  public static Dataset of(Field field, double[] values) {
+    return new Dataset(new String[]{field.name}, new Expr[]{Expr.ref(Column.decimals(values))}, values.length, Execution.Sequential);
+  }
 
-      throw new UnsupportedOperationException();
-    });
+  public static Dataset of(Field field, String[] values) {
+    return new Dataset(new String[]{field.name}, new Expr[]{Expr.ref(Column.texts(values))}, values.length, Execution.Sequential);
   }
 
-  public Dataset plus(Dataset that) {
-    return binary(that, "+", (left, right) -> {
-      if (left instanceof Value.Integer && right instanceof Value.Integer)
-        return new Value.Integer(((Value.Integer) left).value + ((Value.Integer) right).value);
+  /**
+   * Places the columns of `that` beside the columns of this dataset. Both must have the same size.
+   */
+  public Dataset with(Dataset that) {
+    if (size != that.size) throw new IllegalArgumentException("Datasets differ in size: " + size + " and " + that.size);
 
-      if (left instanceof Value.Integer && right instanceof Value.Decimal)
-        return new Value.Decimal(((Value.Integer) left).value + ((Value.Decimal) right).value);
+    String[] names = new String[this.names.length + that.names.length];
+    Expr[] exprs = new Expr[names.length];
+    System.arraycopy(this.names, 0, names, 0, this.names.length);
+    System.arraycopy(that.names, 0, names, this.names.length, that.names.length);
+    System.arraycopy(this.exprs, 0, exprs, 0, this.exprs.length);
+    System.arraycopy(that.exprs, 0, exprs, this.exprs.length, that.exprs.length);
+    return new Dataset(names, exprs, size, execution);
+  }
 
-      if (left instanceof Value.Decimal && right instanceof Value.Integer)
-        return new Value.Decimal(((Value.Decimal) left).value + ((Value.Integer) right).value);
+  /**
+   * Returns this dataset with a different execution mode; for example, `Execution.parallel()`
+   * evaluates expressions derived from it on all cores.
+   */
+  public Dataset withExecution(Execution execution) {
+    return new Dataset(names, exprs, size, execution);
+  }
 
-      if (left instanceof Value.Decimal && right instanceof Value.Decimal)
-        return new Value.Decimal(((Value.Decimal) left).value + ((Value.Decimal) right).value);
+  /**
+   * Returns this dataset with a cache of materialized columns, which datasets derived from it
+   * share (see `ColumnCache`).
+   */
+  public Dataset withCache(ColumnCache cache) {
+    return withExecution(execution.withCache(cache));
+  }
 
-      throw new UnsupportedOperationException();
-    });
+  public int size() {
+    return size;
   }
 
-  public Dataset minus(Dataset that) {
-    return binary(that, "-", (left, right) -> {
-      if (left instanceof Value.Integer && right instanceof Value.Integer)
-        return new Value.Integer(((Value.Integer) left).value - ((Value.Integer) right).value);
+  public Schema schema() {
+    Column.Type[] types = new Column.Type[exprs.length];
+    for (int i = 0; i < exprs.length; i++) types[i] = exprs[i].type;
+    return new Schema(names.clone(), types);
+  }
 
-      if (left instanceof Value.Integer && right instanceof Value.Decimal)
-        return new Value.Decimal(((Value.Integer) left).value - ((Value.Decimal) right).value);
+  /**
+   * Evaluates every pending expression of this dataset, each in one fused pass over the rows.
+   * Operations such as `plus` only build the expression tree; nothing is computed until a
+   * dataset is materialized. Subexpressions shared by several columns are evaluated only once.
+   * The result is remembered, so repeated calls are free.
+   */
+  public Dataset materialize() {
+    Dataset result = materialized;
+    if (result == null) {
+      Column[] columns = Evaluator.evaluate(exprs, size, execution);
+      Expr[] refs = new Expr[exprs.length];
+      for (int i = 0; i < exprs.length; i++) refs[i] = Expr.ref(columns[i]);
 
-      if (left instanceof Value.Decimal && right instanceof Value.Integer)
-        return new Value.Decimal(((Value.Decimal) left).value - ((Value.Integer) right).value);
+      result = new Dataset(names, refs, size, execution);
+      result.materialized = result;
+      materialized = result;
+    }
+    return result;
+  }
 
-      if (left instanceof Value.Decimal && right instanceof Value.Decimal)
-        return new Value.Decimal(((Value.Decimal) left).value - ((Value.Decimal) right).value);
+  Column column(int index) {
+    return ((Expr.Ref) materialize().exprs[index]).column;
+  }
+
+  /**
+   * The rows of this dataset, which all share its schema (see `Row`). NA cells are `Value.NA`.
+   */
+  public Chunk<Row> toRows() {
+    Schema schema = schema();
+    Column[] columns = new Column[names.length];
+    for (int c = 0; c < columns.length; c++) columns[c] = column(c);
+
+    Row[] rows = new Row[size];
+    for (int i = 0; i < size; i++) {
+      Value[] values = new Value[columns.length];
+      for (int c = 0; c < columns.length; c++) values[c] = columns[c].get(i);
+      rows[i] = new Row(schema, values);
+    }
+    return Chunk.fromArray(rows);
+  }
+
+  public Dataset apply(Field field) {
+    Expr[] source = materialized != null ? materialized.exprs : exprs;
+    for (int i = 0; i < names.length; i++) {
+      if (names[i].equals(field.name)) {
+        Dataset column = new Dataset(new String[]{names[i]}, new Expr[]{source[i]}, size, execution);
+        // A column of a materialized dataset is a materialized column:
+        if (materialized != null) column.materialized = column;
+        return column;
+      }
+    }
+    return new Dataset(new String[0], new Expr[0], size, execution);
+  }
+
+  /**
+   * The statistics of `field`, computed once per column (see `ColumnStats`).
+   */
+  public ColumnStats stats(Field field) {
+    Dataset column = apply(field);
+    if (column.names.length == 0) throw new IllegalArgumentException("No field named " + field.name);
+    return column.column(0).stats();
+  }
+
+  /**
+   * The rows that satisfy `predicate`, e.g. `dataset.filter(start.lessThan(90).and(netPay.greaterThan(30000)))`.
+   * No column is copied: the result reads its columns through the selection vector of matching
+   * rows, and later operations only touch the rows that survived. Blocks of rows that the zone map
+   * of a column with statistics rules out are not read at all.
+   */
+  public Dataset filter(Predicate predicate) {
+    return select(predicate.select(this, null));
+  }
+
+  /**
+   * The rows ordered by the values of `field`, with NA last, e.g. `dataset.sortBy(netPay, false)`.
+   * The sort is stable and runs on primitive keys (see `Sort`); like `filter`, the result reads its
+   * columns through the permutation, without copying them.
+   */
+  public Dataset sortBy(Field field, boolean ascending) {
+    return select(Sort.sort(this, field, ascending));
+  }
+
+  /**
+   * The `k` rows with the largest values of `field`, largest first, e.g. the top 100 earners by
+   * `dataset.topK(netPay, 100)`. Takes O(n log k) time and O(k) space; NA cells are never chosen,
+   * so the result has fewer than `k` rows if there are fewer valid cells.
+   */
+  public Dataset topK(Field field, int k) {
+    return select(Sort.top(this, field, k));
+  }
+
+  // The given rows, in the given order, read through a selection vector:
+  Dataset select(int[] rows) {
+    Expr[] source = materialized != null ? materialized.exprs : exprs;
+    Expr[] exprs = new Expr[source.length];
+    for (int i = 0; i < source.length; i++) exprs[i] = Expr.select(source[i], rows);
+    return new Dataset(names, exprs, rows.length, execution);
+  }
 
-      throw new UnsupportedOperationException();
-    });
+  /**
+   * Pairs every row of this dataset with every row of `that` that has equal values of `fields`,
+   * which both datasets must have. The result has the columns of this dataset, then those of
+   * `that` other than `fields`. Rows whose key has NA cells match nothing.
+   */
+  public Dataset join(Dataset that, Field... fields) {
+    return Join.join(this, that, fields, false);
+  }
+
+  /**
+   * Like `join`, but keeps rows of this dataset without a match, with NA in the columns of `that`.
+   */
+  public Dataset leftJoin(Dataset that, Field... fields) {
+    return Join.join(this, that, fields, true);
+  }
+
+  public Dataset times(Dataset that) {
+    return binary(that, "*");
+  }
+
+  public Dataset plus(Dataset that) {
+    return binary(that, "+");
+  }
+
+  public Dataset minus(Dataset that) {
+    return binary(that, "-");
   }
 
   public Dataset divide(Dataset that) {
-    return binary(that, "/", (left, right) -> {
-      if (left instanceof Value.Integer && right instanceof Value.Integer)
-        return new Value.Integer(((Value.Integer) left).value / ((Value.Integer) right).value);
+    return binary(that, "/");
+  }
+
+  private Dataset binary(Dataset that, String symbol) {
+    String[] names = new String[this.names.length * that.names.length];
+    Expr[] exprs = new Expr[names.length];
+
+    int k = 0;
+    for (int i = 0; i < this.names.length; i++) {
+      for (int j = 0; j < that.names.length; j++) {
+        names[k] = "(" + this.names[i] + " " + symbol + " " + that.names[j] + ")";
+        exprs[k] = Expr.binary(symbol, this.exprs[i], that.exprs[j]);
+        k = k + 1;
+      }
+    }
+
+    return new Dataset(names, exprs, Math.min(size, that.size), execution);
+  }
 
-      if (left instanceof Value.Integer && right instanceof Value.Decimal)
-        return new Value.Decimal(((Value.Integer) left).value / ((Value.Decimal) right).value);
+  public Value sum(Field field) {
+    return apply(field).sum();
+  }
+
+  public Value mean(Field field) {
+    return apply(field).mean();
+  }
+
+  public Value min(Field field) {
+    return apply(field).min();
+  }
+
+  public Value max(Field field) {
+    return apply(field).max();
+  }
+
+  public long countValid(Field field) {
+    return apply(field).countValid();
+  }
+
+  /**
+   * Sums the only column of this dataset, e.g. `dataset.apply(end).minus(dataset.apply(start)).sum()`.
+   * The expression is reduced directly, without materializing a column. NA cells are skipped, and
+   * the sum of no valid cells (or of text) is NA.
+   */
+  public Value sum() {
+    return Aggregates.sum(single(), size, execution);
+  }
 
-      if (left instanceof Value.Decimal && right instanceof Value.Integer)
-        return new Value.Decimal(((Value.Decimal) left).value / ((Value.Integer) right).value);
+  /**
+   * The mean of the valid cells of the only column, always a `Value.Decimal`, or NA.
+   */
+  public Value mean() {
+    return Aggregates.mean(single(), size, execution);
+  }
 
-      if (left instanceof Value.Decimal && right instanceof Value.Decimal)
-        return new Value.Decimal(((Value.Decimal) left).value / ((Value.Decimal) right).value);
+  public Value min() {
+    return Aggregates.min(single(), size, execution);
+  }
 
-      throw new UnsupportedOperationException();
-    });
+  public Value max() {
+    return Aggregates.max(single(), size, execution);
   }
 
-  private Dataset binary(Dataset that, String symbol, BinaryOperator<Value> f) {
-  
-    Chunk<scala.Tuple2<Row, Row>> zipped = (Chunk<scala.Tuple2<Row, Row>>) rows.zip(that.rows);
+  /**
+   * Groups rows by the values of `fields`, for aggregation per group, for example
+   * `dataset.groupBy(start).mean(netPay)`. NA is a key like any other.
+   */
+  public GroupedDataset groupBy(Field... fields) {
+    return new GroupedDataset(this, fields);
+  }
 
-    return new Dataset(zipped.map(tuple -> {
-      Row leftRow = tuple._1;
-      Row rightRow = tuple._2;
+  /**
+   * The number of rows, NA or not.
+   */
+  public long count() {
+    return size;
+  }
 
-      AtomicReference<Map<String, Value>> newMap = new AtomicReference(HashMap.empty());
-      
-      leftRow.map.forEach((leftName, leftValue) -> {
-        rightRow.map.forEach((rightName, rightValue) -> {
-          String name = "(leftName "+symbol+" rightName)";
-          try {
-            newMap.getAndUpdate(map -> map.put(name, f.apply(leftValue, rightValue)));
-          } catch (Exception ex) {
-            newMap.getAndUpdate(map -> map.put(name, Value.NA));
-          }
-        });
-      });
+  /**
+   * The number of cells of the only column which are not NA.
+   */
+  public long countValid() {
+    return Aggregates.countValid(single(), size, execution);
+  }
 
-      return new Row(newMap.get());
-    }));
+  // The expression aggregated by `sum()` and friends, reusing its column if already materialized.
+  // Aggregates read it row by row, so its integer divisors are evaluated first (see `Evaluator.divisors`):
+  Expr single() {
+    if (exprs.length > 1) throw new IllegalStateException("Aggregates need a single column, but this dataset has " + exprs.length);
+    if (exprs.length == 0) return null;
+    return materialized != null ? materialized.exprs[0] : Evaluator.divisors(exprs[0], size, execution);
   }
-}
\ No newline at end of file
+}
@@ -0,0 +1,284 @@
+package net.degoes.project.dataset1;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A compact, columnar on-disk format for `Dataset`, designed to be memory-mapped.
+ *
+ * All numbers are little-endian. The file starts with a header:
+ *
+ *   int   magic ("DSET")        int   version
+ *   int   rows                  int   columns
+ *   int   header length (bytes, including this preamble)
+ *   per column:
+ *     int name length, UTF-8 name bytes
+ *     int type (ordinal of `Column.Type`)
+ *     4 x (long offset, long length) for the validity, values, text data and statistics segments
+ *
+ * Segments start on 64-byte boundaries. Validity is a bitmap of 64-bit words, bit `i` set when
+ * row `i` is valid, and has length 0 when every row is valid. Values are 8-byte longs or doubles,
+ * or for text, 4-byte codes into the column's dictionary (see `Column`). The text data segment
+ * holds that dictionary: an int count, `count + 1` int offsets, then the UTF-8 bytes of the
+ * strings, in code order. The statistics segment holds the column's `ColumnStats`, including
+ * its zone map, so that filters can skip blocks of a file as soon as it is opened.
+ *
+ * `open` maps every segment read-only and builds columns directly over the mappings: nothing is
+ * copied, no per-row objects are created, and pages are only read from disk when a column is
+ * first touched. Only dictionaries are decoded up front. Each segment is limited to 2 GB, i.e.
+ * 268M rows of an 8-byte column.
+ */
+public final class DatasetFile {
+  static final int Magic     = 0x54455344;
+  static final int Version   = 3;
+  static final int Alignment = 64;
+
+  static final int PreambleBytes = 20;
+
+  public static void write(Dataset dataset, Path path) throws IOException {
+    Dataset materialized = dataset.materialize();
+    int rows = materialized.size;
+    int count = materialized.names.length;
+
+    Column[] columns = new Column[count];
+    byte[][] names = new byte[count][];
+    int headerBytes = PreambleBytes;
+    for (int c = 0; c < count; c++) {
+      columns[c] = materialized.column(c);
+      names[c] = materialized.names[c].getBytes(StandardCharsets.UTF_8);
+      headerBytes += 4 + names[c].length + 4 + 4 * 16;
+    }
+
+    // Dictionaries are encoded up front, because their length must be known before the header is written:
+    byte[][] texts = new byte[count][];
+    int[][] textOffsets = new int[count][];
+    for (int c = 0; c < count; c++) {
+      if (columns[c].type == Column.Type.TEXT) encodeDictionary(columns[c].dictionary, c, textOffsets, texts);
+    }
+
+    long[][] segments = new long[count][8];
+    long position = align(headerBytes);
+    for (int c = 0; c < count; c++) {
+      long[] segment = segments[c];
+      long validityBytes = columns[c].isNullable() ? 8L * ((rows + 63) >>> 6) : 0;
+      long valueBytes = columns[c].type == Column.Type.TEXT ? 4L * rows : 8L * rows;
+      long textBytes = columns[c].type == Column.Type.TEXT ? 4L * (textOffsets[c].length + 1) + texts[c].length : 0;
+
+      segment[0] = position; segment[1] = validityBytes; position = align(position + validityBytes);
+      segment[2] = position; segment[3] = valueBytes;    position = align(position + valueBytes);
+      segment[4] = position; segment[5] = textBytes;     position = align(position + textBytes);
+      segment[6] = position; segment[7] = columns[c].stats().bytes(); position = align(position + segment[7]);
+    }
+
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+      Output out = new Output(channel);
+
+      out.putInt(Magic);
+      out.putInt(Version);
+      out.putInt(rows);
+      out.putInt(count);
+      out.putInt(headerBytes);
+      for (int c = 0; c < count; c++) {
+        out.putInt(names[c].length);
+        out.put(names[c]);
+        out.putInt(columns[c].type.ordinal());
+        for (long field : segments[c]) out.putLong(field);
+      }
+
+      for (int c = 0; c < count; c++) {
+        Column column = columns[c];
+
+        out.padTo(segments[c][0]);
+        if (segments[c][1] > 0) {
+          int words = (rows + 63) >>> 6;
+          for (int w = 0; w < words; w++) out.putLong(validityWord(column, w));
+        }
+
+        out.padTo(segments[c][2]);
+        switch (column.type) {
+          case INTEGER:
+            for (int i = 0; i < rows; i++) out.putLong(column.getLong(i));
+            break;
+          case DECIMAL:
+            for (int i = 0; i < rows; i++) out.putDouble(column.getDouble(i));
+            break;
+          case TEXT:
+            for (int i = 0; i < rows; i++) out.putInt(column.getCode(i));
+            out.padTo(segments[c][4]);
+            out.putInt(textOffsets[c].length - 1);
+            for (int offset : textOffsets[c]) out.putInt(offset);
+            out.put(texts[c]);
+            break;
+        }
+
+        out.padTo(segments[c][6]);
+        column.stats().write(out);
+      }
+      out.padTo(position);
+      out.flush();
+    }
+  }
+
+  public static Dataset open(Path path) throws IOException {
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+      ByteBuffer preamble = read(channel, 0, PreambleBytes);
+      if (preamble.getInt() != Magic) throw new IOException("Not a dataset file: " + path);
+      int version = preamble.getInt();
+      if (version != Version) throw new IOException("Unsupported dataset file version " + version + ": " + path);
+      int rows = preamble.getInt();
+      int count = preamble.getInt();
+      int headerBytes = preamble.getInt();
+
+      ByteBuffer header = read(channel, PreambleBytes, headerBytes - PreambleBytes);
+      String[] names = new String[count];
+      Column[] columns = new Column[count];
+      for (int c = 0; c < count; c++) {
+        byte[] name = new byte[header.getInt()];
+        header.get(name);
+        names[c] = new String(name, StandardCharsets.UTF_8);
+
+        Column.Type type = Column.Type.values()[header.getInt()];
+        ByteBuffer validity = map(channel, header.getLong(), header.getLong());
+        ByteBuffer values   = map(channel, header.getLong(), header.getLong());
+        ByteBuffer text     = map(channel, header.getLong(), header.getLong());
+        ByteBuffer stats    = map(channel, header.getLong(), header.getLong());
+
+        LongBuffer validityWords = validity == null ? null : validity.asLongBuffer();
+        // A column of no rows has no values segment:
+        if (values == null) values = ByteBuffer.allocate(0).order(ByteOrder.LITTLE_ENDIAN);
+        switch (type) {
+          case INTEGER: columns[c] = Column.mappedIntegers(rows, values.asLongBuffer(), validityWords); break;
+          case DECIMAL: columns[c] = Column.mappedDecimals(rows, values.asDoubleBuffer(), validityWords); break;
+          default:      columns[c] = Column.mappedTexts(rows, values.asIntBuffer(), decodeDictionary(text), validityWords); break;
+        }
+        if (stats != null) columns[c].stats = ColumnStats.read(stats, type, rows);
+      }
+
+      // Mappings stay valid after the channel is closed.
+      return Dataset.fromColumns(names, columns, rows);
+    }
+  }
+
+  static void encodeDictionary(Dictionary dictionary, int c, int[][] textOffsets, byte[][] texts) {
+    int size = dictionary.size();
+    byte[][] encoded = new byte[size][];
+    int[] offsets = new int[size + 1];
+    long total = 0;
+    for (int code = 0; code < size; code++) {
+      String text = dictionary.decode(code);
+      encoded[code] = text == null ? new byte[0] : text.getBytes(StandardCharsets.UTF_8);
+      offsets[code] = (int) total;
+      total += encoded[code].length;
+      if (total > Integer.MAX_VALUE) throw new IllegalArgumentException("Text dictionary exceeds 2 GB");
+    }
+    offsets[size] = (int) total;
+
+    byte[] data = new byte[(int) total];
+    for (int code = 0; code < size; code++) System.arraycopy(encoded[code], 0, data, offsets[code], encoded[code].length);
+
+    textOffsets[c] = offsets;
+    texts[c] = data;
+  }
+
+  private static Dictionary decodeDictionary(ByteBuffer text) {
+    int size = text.getInt(0);
+    int bytes = 4 * (size + 2);
+    String[] values = new String[size];
+    for (int code = 0; code < size; code++) {
+      int start = text.getInt(4 * (code + 1)), end = text.getInt(4 * (code + 2));
+      byte[] utf8 = new byte[end - start];
+      text.get(bytes + start, utf8);
+      values[code] = new String(utf8, StandardCharsets.UTF_8);
+    }
+    return Dictionary.of(values);
+  }
+
+  static long validityWord(Column column, int word) {
+    if (column.validityBuffer != null) return column.validityBuffer.get(word);
+    return column.validity[word];
+  }
+
+  static long align(long position) {
+    return (position + Alignment - 1) & -Alignment;
+  }
+
+  static ByteBuffer read(FileChannel channel, long position, int length) throws IOException {
+    ByteBuffer buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+    while (buffer.hasRemaining()) {
+      if (channel.read(buffer, position + buffer.position()) < 0) throw new IOException("Truncated dataset file");
+    }
+    return buffer.flip();
+  }
+
+  static ByteBuffer map(FileChannel channel, long offset, long length) throws IOException {
+    if (length == 0) return null;
+    return channel.map(FileChannel.MapMode.READ_ONLY, offset, length).order(ByteOrder.LITTLE_ENDIAN);
+  }
+
+  /**
+   * Buffered, little-endian writes to a channel, tracking the absolute file position.
+   */
+  static final class Output {
+    FileChannel channel;
+    ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 16).order(ByteOrder.LITTLE_ENDIAN);
+    long position = 0;
+
+    Output(FileChannel channel) {
+      this.channel = channel;
+    }
+
+    void putInt(int value) throws IOException {
+      ensure(4);
+      buffer.putInt(value);
+      position += 4;
+    }
+
+    void putLong(long value) throws IOException {
+      ensure(8);
+      buffer.putLong(value);
+      position += 8;
+    }
+
+    void putDouble(double value) throws IOException {
+      ensure(8);
+      buffer.putDouble(value);
+      position += 8;
+    }
+
+    void put(byte[] bytes) throws IOException {
+      int offset = 0;
+      while (offset < bytes.length) {
+        ensure(1);
+        int length = Math.min(buffer.remaining(), bytes.length - offset);
+        buffer.put(bytes, offset, length);
+        offset += length;
+        position += length;
+      }
+    }
+
+    void padTo(long target) throws IOException {
+      while (position < target) {
+        ensure(1);
+        buffer.put((byte) 0);
+        position += 1;
+      }
+    }
+
+    void flush() throws IOException {
+      buffer.flip();
+      while (buffer.hasRemaining()) channel.write(buffer);
+      buffer.clear();
+    }
+
+    private void ensure(int bytes) throws IOException {
+      if (buffer.remaining() < bytes) flush();
+    }
+  }
+}
@@ -0,0 +1,71 @@
+package net.degoes.project.dataset1;
+
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * Assigns dense `int` codes to distinct strings, in order of first appearance, so that text can
+ * be stored, hashed and compared as integers. Dictionaries only ever grow, so columns built
+ * earlier stay valid while later columns add strings to the same dictionary.
+ */
+final class Dictionary {
+  String[] values = new String[16];
+  int size;
+  HashMap<String, Integer> codes = new HashMap<>();
+
+  /**
+   * A dictionary in which `values[code]` has code `code`.
+   */
+  static Dictionary of(String[] values) {
+    Dictionary dictionary = new Dictionary();
+    dictionary.values = values.length == 0 ? new String[16] : values;
+    dictionary.size = values.length;
+    for (int code = values.length - 1; code >= 0; code--) dictionary.codes.put(values[code], code);
+    return dictionary;
+  }
+
+  int encode(String value) {
+    Integer code = codes.get(value);
+    if (code != null) return code;
+
+    if (size == values.length) values = Arrays.copyOf(values, size * 2);
+    values[size] = value;
+    codes.put(value, size);
+    return size++;
+  }
+
+  /**
+   * Maps every code of `that` to the code of the same string in this dictionary, adding the
+   * strings this dictionary lacks.
+   */
+  int[] encode(Dictionary that) {
+    int[] codes = new int[that.size];
+    for (int code = 0; code < that.size; code++) codes[code] = this == that ? code : encode(that.values[code]);
+    return codes;
+  }
+
+  /**
+   * The code of `value`, or -1 if it is not in this dictionary.
+   */
+  int find(String value) {
+    Integer code = codes.get(value);
+    return code == null ? -1 : code;
+  }
+
+  String decode(int code) {
+    return values[code];
+  }
+
+  int size() {
+    return size;
+  }
+
+  /**
+   * Maps every code of `that` to the code of the same string in this dictionary, or -1.
+   */
+  int[] translate(Dictionary that) {
+    int[] codes = new int[that.size];
+    for (int code = 0; code < that.size; code++) codes[code] = this == that ? code : find(that.values[code]);
+    return codes;
+  }
+}
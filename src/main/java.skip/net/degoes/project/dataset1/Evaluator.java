@@ -0,0 +1,173 @@
+package net.degoes.project.dataset1;
+
+import java.util.HashMap;
+
+/**
+ * Materializes an expression tree into a column in a single pass over the rows. The only arrays
+ * allocated are the output column and, for nullable expressions, its validity bitmap. Numeric
+ * trees run as compiled kernels (see `Compiler`), except single operators over heap arrays,
+ * which run on vector kernels when available (see `Kernels` and `Execution.withKernels`). With a
+ * parallel `Execution`, each morsel of rows is evaluated independently into its own range of the
+ * output.
+ */
+final class Evaluator {
+  /**
+   * Materializes the expressions of one dataset together. A subexpression that occurs more than
+   * once, in one expression or across several, is evaluated once into a column that every
+   * occurrence then reads. With a `ColumnCache` (see `Execution.withCache`), columns are first
+   * looked up in the cache, by the expression as written.
+   */
+  static Column[] evaluate(Expr[] exprs, int size, Execution execution) {
+    HashMap<Expr, Integer> occurrences = new HashMap<>();
+    for (Expr expr : exprs) count(expr, occurrences);
+
+    HashMap<Expr, Expr> shared = new HashMap<>();
+    Column[] columns = new Column[exprs.length];
+    for (int i = 0; i < exprs.length; i++) columns[i] = cached(exprs[i], share(exprs[i], occurrences, shared, size, execution), size, execution);
+    return columns;
+  }
+
+  private static void count(Expr expr, HashMap<Expr, Integer> occurrences) {
+    if (!(expr instanceof Expr.Binary)) return;
+
+    // Children are counted once per distinct parent, so that a shared node does not make its own
+    // subexpressions look shared:
+    if (occurrences.merge(expr, 1, Integer::sum) > 1) return;
+    count(((Expr.Binary) expr).left, occurrences);
+    count(((Expr.Binary) expr).right, occurrences);
+  }
+
+  // Rewrites `expr`, replacing the outermost shared subexpressions with their evaluated columns:
+  private static Expr share(Expr expr, HashMap<Expr, Integer> occurrences, HashMap<Expr, Expr> shared, int size, Execution execution) {
+    if (!(expr instanceof Expr.Binary)) return expr;
+    Expr ref = shared.get(expr);
+    if (ref != null) return ref;
+
+    Expr.Binary binary = (Expr.Binary) expr;
+    Expr left = share(binary.left, occurrences, shared, size, execution);
+    Expr right = share(binary.right, occurrences, shared, size, execution);
+    Expr rewritten = left == binary.left && right == binary.right ? expr : Expr.binary(binary.symbol, left, right);
+    if (occurrences.get(expr) < 2) return rewritten;
+
+    ref = Expr.ref(cached(expr, rewritten, size, execution));
+    shared.put(expr, ref);
+    return ref;
+  }
+
+  // Evaluates `rewritten`, an equivalent of `expr`, unless the cache has a column for `expr`:
+  private static Column cached(Expr expr, Expr rewritten, int size, Execution execution) {
+    ColumnCache cache = execution.cache;
+    if (cache == null || expr instanceof Expr.Ref) return evaluate(rewritten, size, execution);
+
+    Column column = cache.get(expr, size);
+    if (column == null) {
+      column = evaluate(rewritten, size, execution);
+      cache.put(expr, size, column);
+    }
+    return column;
+  }
+
+  static Column evaluate(Expr expr, int size, Execution execution) {
+    if (expr instanceof Expr.Ref && ((Expr.Ref) expr).column.size == size)
+      return ((Expr.Ref) expr).column;
+    Expr prepared = divisors(expr, size, execution);
+    if (prepared != expr) return evaluate(prepared, size, execution);
+    if (expr.mixed) return mixed(expr, size, execution);
+
+    Kernels kernels = Kernels.canRun(expr, execution.kernels) ? execution.kernels : null;
+    boolean compiled = kernels == null && Compiler.canCompile(expr, size);
+    long[] validity = expr.nullable ? Bitmap.allocate(size) : null;
+
+    if (expr.type == Column.Type.INTEGER) {
+      long[] out = new long[size];
+      Execution.RangeTask loop = compiled ? Compiler.bind(expr, out) : null;
+      execution.forEachMorsel(size, (from, to) -> {
+        if (kernels != null) kernels.run(expr, out, from, to);
+        else if (loop != null) loop.run(from, to);
+        else for (int i = from; i < to; i++) out[i] = expr.getLong(i);
+
+        if (validity != null) validate(expr, validity, from, to);
+      });
+      return Column.integers(out, Bitmap.compact(validity, size));
+    } else if (expr.type == Column.Type.DECIMAL) {
+      double[] out = new double[size];
+      Execution.RangeTask loop = compiled ? Compiler.bind(expr, out) : null;
+      execution.forEachMorsel(size, (from, to) -> {
+        if (kernels != null) kernels.run(expr, out, from, to);
+        else if (loop != null) loop.run(from, to);
+        else for (int i = from; i < to; i++) out[i] = expr.getDouble(i);
+
+        if (validity != null) validate(expr, validity, from, to);
+      });
+      return Column.decimals(out, Bitmap.compact(validity, size));
+    } else {
+      // Text is gathered as codes, and the result shares the dictionary of its source:
+      int[] out = new int[size];
+      execution.forEachMorsel(size, (from, to) -> {
+        for (int i = from; i < to; i++) out[i] = expr.getCode(i);
+
+        if (validity != null) validate(expr, validity, from, to);
+      });
+      return Column.texts(out, expr.dictionary(), Bitmap.compact(validity, size));
+    }
+  }
+
+  /**
+   * Rewrites `expr` so that every integer division reads its divisor from a column. An integer
+   * division is NA where its divisor is zero, so its validity reads the divisor as well as its
+   * value does; a divisor that is itself an operator is evaluated once here rather than twice per
+   * row. Returns `expr` itself if no divisor needs evaluating.
+   */
+  static Expr divisors(Expr expr, int size, Execution execution) {
+    if (!(expr instanceof Expr.Binary)) return expr;
+
+    Expr.Binary binary = (Expr.Binary) expr;
+    Expr left = divisors(binary.left, size, execution);
+    Expr right = divisors(binary.right, size, execution);
+    if (binary.dividesIntegers() && right instanceof Expr.Binary) right = Expr.ref(evaluate(right, size, execution));
+    return left == binary.left && right == binary.right ? expr : Expr.binary(binary.symbol, left, right);
+  }
+
+  // Keeps the tag of every row, and the exact value of its cell in the array of its type. Rows of
+  // numeric cells are the valid ones; text cells are NA to the numeric type of the column:
+  private static Column mixed(Expr expr, int size, Execution execution) {
+    boolean decimals = expr.type == Column.Type.DECIMAL;
+    Dictionary dictionary = expr.dictionary();
+    long[] longs = new long[size];
+    double[] doubles = decimals ? new double[size] : null;
+    int[] codes = dictionary != null ? new int[size] : null;
+    byte[] tags = new byte[size];
+    long[] validity = Bitmap.allocate(size);
+
+    execution.forEachMorsel(size, (from, to) -> {
+      for (int i = from; i < to; i++) {
+        byte tag = expr.tag(i);
+        tags[i] = tag;
+        if (codes != null) codes[i] = -1;
+        if (tag == Column.NoTag) continue;
+
+        switch (Column.Types[tag]) {
+          case INTEGER:
+            longs[i] = expr.getLong(i);
+            if (decimals) doubles[i] = longs[i];
+            Bitmap.set(validity, i);
+            break;
+          case DECIMAL:
+            doubles[i] = expr.getDouble(i);
+            Bitmap.set(validity, i);
+            break;
+          default:
+            codes[i] = expr.getCode(i);
+        }
+      }
+    });
+    return Column.mixed(expr.type, size, longs, doubles, codes, dictionary, tags, Bitmap.compact(validity, size));
+  }
+
+  // Morsels start on multiples of 64 rows, so no two morsels write the same bitmap word:
+  private static void validate(Expr expr, long[] validity, int from, int to) {
+    for (int i = from; i < to; i++) {
+      if (expr.isValid(i)) Bitmap.set(validity, i);
+    }
+  }
+}
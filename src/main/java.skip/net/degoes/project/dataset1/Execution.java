@@ -0,0 +1,226 @@
+package net.degoes.project.dataset1;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.BinaryOperator;
+import java.util.function.IntConsumer;
+
+/**
+ * How a `Dataset` evaluates its expressions. Rows are split into cache-sized morsels, which run on
+ * a dedicated `ForkJoinPool`. Every morsel writes only its own range of the output, so results
+ * are deterministic and keep row order. Inputs smaller than `minRows` always run sequentially.
+ *
+ * Every parallel execution that is constructed, rather than derived, starts a pool of its own,
+ * whose threads live until `shutdown` is called (see `parallel`).
+ */
+public final class Execution {
+  // 16K rows of a long column is 128 KB, which stays resident in a typical L2 cache:
+  static final int DefaultMorselRows = 16 * 1024;
+  static final int DefaultMinRows    = 4 * DefaultMorselRows;
+
+  public static final Execution Sequential = new Execution(1, Integer.MAX_VALUE, DefaultMorselRows);
+
+  int parallelism;
+  int minRows;
+  int morselRows;
+  ForkJoinPool pool;
+  ColumnCache cache = null;
+  // Scalar kernels are no faster than compiled loops, so by default only vector kernels are used:
+  Kernels kernels = Kernels.Instance.isVectorized() ? Kernels.Instance : null;
+
+  public Execution(int parallelism, int minRows, int morselRows) {
+    if (parallelism < 1 || morselRows < 1) throw new IllegalArgumentException("parallelism and morselRows must be positive");
+
+    this.parallelism = parallelism;
+    this.minRows = minRows;
+    // Morsels are whole multiples of 64 rows, so they never share a word of a validity bitmap:
+    this.morselRows = (morselRows + 63) & ~63;
+    this.pool = parallelism > 1 ? new ForkJoinPool(parallelism) : null;
+  }
+
+  private Execution(int parallelism, int minRows, int morselRows, ForkJoinPool pool, ColumnCache cache, Kernels kernels) {
+    this.parallelism = parallelism;
+    this.minRows = minRows;
+    this.morselRows = morselRows;
+    this.pool = pool;
+    this.cache = cache;
+    this.kernels = kernels;
+  }
+
+  /**
+   * This execution, sharing its workers, but looking up materialized columns in `cache` first.
+   */
+  public Execution withCache(ColumnCache cache) {
+    return new Execution(parallelism, minRows, morselRows, pool, cache, kernels);
+  }
+
+  /**
+   * This execution, sharing its workers, but running single arithmetic operators over arrays on
+   * the named kernels (see `Kernels`): `"vector"`, `"scalar"`, or `"compiled"` for none, which
+   * leaves them to `Compiler` like any other expression. `"vector"` requires the
+   * `jdk.incubator.vector` module.
+   */
+  public Execution withKernels(String name) {
+    Kernels kernels;
+    if (name.equals("vector")) {
+      if (!Kernels.Instance.isVectorized()) throw new IllegalStateException("jdk.incubator.vector is not available");
+      kernels = Kernels.Instance;
+    } else if (name.equals("scalar")) {
+      kernels = new ScalarKernels();
+    } else if (name.equals("compiled")) {
+      kernels = null;
+    } else {
+      throw new IllegalArgumentException("Unknown kernels " + name);
+    }
+    return new Execution(parallelism, minRows, morselRows, pool, cache, kernels);
+  }
+
+  /**
+   * An execution on a new pool of `parallelism` workers. Every call starts its own pool, which the
+   * caller owns: call `shutdown` once it is no longer used, or its threads stay alive. Executions
+   * derived from it by `withCache` and `withKernels` share its pool, so shut down only one of them.
+   */
+  public static Execution parallel(int parallelism) {
+    return new Execution(parallelism, DefaultMinRows, DefaultMorselRows);
+  }
+
+  /**
+   * Like `parallel(int)`, with a worker per processor.
+   */
+  public static Execution parallel() {
+    return parallel(Runtime.getRuntime().availableProcessors());
+  }
+
+  public int parallelism() {
+    return parallelism;
+  }
+
+  public void shutdown() {
+    if (pool != null) pool.shutdown();
+  }
+
+  interface RangeTask {
+    void run(int from, int to);
+  }
+
+  interface RangeFunction<A> {
+    A apply(int from, int to);
+  }
+
+  boolean isParallel(int rows) {
+    return pool != null && rows >= minRows && rows > morselRows;
+  }
+
+  /**
+   * Runs `task` over `[0, rows)`, morsel by morsel. An exception thrown by any morsel propagates
+   * to the caller.
+   */
+  void forEachMorsel(int rows, RangeTask task) {
+    if (isParallel(rows)) {
+      pool.invoke(new Morsels(task, 0, rows, morselRows));
+    } else {
+      // Sequential runs are morsel-sized too, which keeps compiled kernels hot (see `Compiler`):
+      for (int from = 0; from < rows; from += morselRows) task.run(from, Math.min(rows, from + morselRows));
+    }
+  }
+
+  /**
+   * Runs `task` for each of `count` independent tasks, such as the partitions of a hash join, in
+   * parallel if this execution is parallel.
+   */
+  void forEachTask(int count, IntConsumer task) {
+    RangeTask range = (from, to) -> {
+      for (int i = from; i < to; i++) task.accept(i);
+    };
+    if (pool != null && count > 1) pool.invoke(new Morsels(range, 0, count, 1));
+    else range.run(0, count);
+  }
+
+  /**
+   * Maps every morsel of `[0, rows)` to a partial result and merges the partials pairwise. The
+   * merge tree depends only on `rows` and `morselRows`, never on scheduling, so floating-point
+   * reductions give the same result sequentially and in parallel.
+   */
+  <A> A reduceMorsels(int rows, RangeFunction<A> map, BinaryOperator<A> merge) {
+    Reduction<A> reduction = new Reduction<>(map, merge, 0, rows, morselRows);
+    return isParallel(rows) ? pool.invoke(reduction) : reduction.compute();
+  }
+
+  /**
+   * Like `reduceMorsels`, but maps one contiguous range per worker rather than one per morsel,
+   * for partial results that are costly to create and merge, such as hash tables. Ranges are still
+   * merged left to right.
+   */
+  <A> A reduceRanges(int rows, RangeFunction<A> map, BinaryOperator<A> merge) {
+    if (!isParallel(rows)) return map.apply(0, rows);
+
+    int ranges = Math.min(parallelism, (rows + morselRows - 1) / morselRows);
+    int rangeRows = ((rows + ranges - 1) / ranges + 63) & ~63;
+    return pool.invoke(new Reduction<>(map, merge, 0, rows, rangeRows));
+  }
+
+  // Splits `[from, to)` on a morsel boundary near its middle:
+  static int split(int from, int to, int morselRows) {
+    int middle = from + ((to - from) / morselRows / 2) * morselRows;
+    return middle == from ? from + morselRows : middle;
+  }
+
+  static final class Morsels extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+
+    RangeTask task;
+    int from;
+    int to;
+    int morselRows;
+
+    Morsels(RangeTask task, int from, int to, int morselRows) {
+      this.task = task;
+      this.from = from;
+      this.to = to;
+      this.morselRows = morselRows;
+    }
+
+    protected void compute() {
+      if (to - from <= morselRows) {
+        task.run(from, to);
+      } else {
+        // Split on a morsel boundary, so that morsels never share a cache line of output:
+        int middle = split(from, to, morselRows);
+        invokeAll(new Morsels(task, from, middle, morselRows), new Morsels(task, middle, to, morselRows));
+      }
+    }
+  }
+
+  static final class Reduction<A> extends RecursiveTask<A> {
+    private static final long serialVersionUID = 1L;
+
+    RangeFunction<A> map;
+    BinaryOperator<A> merge;
+    int from;
+    int to;
+    int morselRows;
+
+    Reduction(RangeFunction<A> map, BinaryOperator<A> merge, int from, int to, int morselRows) {
+      this.map = map;
+      this.merge = merge;
+      this.from = from;
+      this.to = to;
+      this.morselRows = morselRows;
+    }
+
+    protected A compute() {
+      if (to - from <= morselRows) return map.apply(from, to);
+
+      int middle = split(from, to, morselRows);
+      Reduction<A> left = new Reduction<>(map, merge, from, middle, morselRows);
+      Reduction<A> right = new Reduction<>(map, merge, middle, to, morselRows);
+      if (inForkJoinPool()) {
+        right.fork();
+        A result = left.compute();
+        return merge.apply(result, right.join());
+      }
+      return merge.apply(left.compute(), right.compute());
+    }
+  }
+}
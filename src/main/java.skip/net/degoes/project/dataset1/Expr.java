@@ -0,0 +1,481 @@
+package net.degoes.project.dataset1;
+
+import java.nio.DoubleBuffer;
+import java.nio.LongBuffer;
+import java.util.IdentityHashMap;
+
+/**
+ * A lazy, per-row expression over columns. Node types are resolved when the tree is built, so
+ * evaluation never inspects the type of a cell: integer nodes are read through `getLong` and
+ * numeric nodes through `getDouble`.
+ *
+ * Every node answers every accessor, so that a node cannot lack one: numeric nodes read as NA
+ * text (a `null` text, code -1), decimal nodes read as longs by truncation, and text nodes read as
+ * zeros. Evaluation only ever uses the accessors of a node's own type.
+ *
+ * Validity is tracked separately from values. A node is `nullable` when some row may be NA, in
+ * which case `isValid` decides per row: a row is NA when any operand is NA, or when an integer
+ * division has a zero divisor. Values of NA rows are unspecified but never throw.
+ *
+ * A node is `mixed` when its rows may hold cells of other types than its own, as columns of mixed
+ * cells do (see `Column`). `tag` gives the type of each row, and arithmetic over mixed nodes
+ * follows it row by row.
+ *
+ * Expressions are equal when they are structurally identical: the same operators over the same
+ * `Column` objects, read through the same selection vectors. Equal expressions always evaluate
+ * to equal columns, which is what `Evaluator` and `ColumnCache` rely on.
+ */
+abstract class Expr {
+  Column.Type type;
+  boolean nullable;
+  boolean mixed = false;
+
+  Expr(Column.Type type, boolean nullable) {
+    this.type = type;
+    this.nullable = nullable;
+  }
+
+  boolean isNumeric() {
+    return type == Column.Type.INTEGER || type == Column.Type.DECIMAL;
+  }
+
+  abstract long getLong(int row);
+
+  abstract double getDouble(int row);
+
+  abstract String getText(int row);
+
+  // Text is read as codes of the dictionary of its column:
+  abstract int getCode(int row);
+
+  Dictionary dictionary() {
+    return null;
+  }
+
+  boolean isValid(int row) {
+    return true;
+  }
+
+  // The ordinal of the type of the cell at `row`, or `Column.NoTag` for NA:
+  byte tag(int row) {
+    return isValid(row) ? (byte) type.ordinal() : Column.NoTag;
+  }
+
+  static Ref ref(Column column) {
+    if (column.tags != null) return new MixedRef(column);
+    switch (column.type) {
+      case INTEGER: return column.longs != null ? new LongRef(column) : new LongBufferRef(column);
+      case DECIMAL: return column.doubles != null ? new DoubleRef(column) : new DoubleBufferRef(column);
+      default:      return new TextRef(column);
+    }
+  }
+
+  static Expr binary(String symbol, Expr left, Expr right) {
+    // Arithmetic on text has no value:
+    if (!left.isNumeric() || !right.isNumeric()) return new NA();
+
+    boolean integers = left.type == Column.Type.INTEGER && right.type == Column.Type.INTEGER;
+    // Integer nodes only ever have integer rows; others decide per row when either side is mixed:
+    if (!integers && (left.mixed || right.mixed)) return new MixedBinary(symbol, left, right);
+    switch (symbol) {
+      case "+": return integers ? new LongPlus(left, right)   : new DoublePlus(left, right);
+      case "-": return integers ? new LongMinus(left, right)  : new DoubleMinus(left, right);
+      case "*": return integers ? new LongTimes(left, right)  : new DoubleTimes(left, right);
+      case "/": return integers ? new LongDivide(left, right) : new DoubleDivide(left, right);
+      default:  throw new IllegalArgumentException(symbol);
+    }
+  }
+
+  /**
+   * Restricts an expression to the given rows, by gathering each of its leaves through the
+   * selection vector. Leaves that are already selected have their vectors composed, so that a
+   * chain of filters costs a single indirection per read.
+   */
+  static Expr select(Expr expr, int[] rows) {
+    return select(expr, rows, false, new IdentityHashMap<>());
+  }
+
+  /**
+   * Like `select`, but a row of -1 selects NA, as for the unmatched rows of an outer join.
+   */
+  static Expr selectOrNA(Expr expr, int[] rows) {
+    return select(expr, rows, true, new IdentityHashMap<>());
+  }
+
+  private static Expr select(Expr expr, int[] rows, boolean orNA, IdentityHashMap<int[], int[]> composed) {
+    if (expr instanceof Select || expr instanceof SelectOrNA) {
+      boolean inner = expr instanceof Select;
+      Ref source = inner ? ((Select) expr).source : ((SelectOrNA) expr).source;
+      int[] composition = composed.computeIfAbsent(inner ? ((Select) expr).rows : ((SelectOrNA) expr).rows, selected -> {
+        int[] result = new int[rows.length];
+        for (int i = 0; i < rows.length; i++) result[i] = rows[i] < 0 ? -1 : selected[rows[i]];
+        return result;
+      });
+      return inner && !orNA ? new Select(source, composition) : new SelectOrNA(source, composition);
+    }
+    if (expr instanceof Ref) return orNA ? new SelectOrNA((Ref) expr, rows) : new Select((Ref) expr, rows);
+    if (expr instanceof Binary) {
+      Binary binary = (Binary) expr;
+      return binary(binary.symbol, select(binary.left, rows, orNA, composed), select(binary.right, rows, orNA, composed));
+    }
+    return expr;
+  }
+
+  abstract static class Ref extends Expr {
+    Column column;
+
+    Ref(Column column) {
+      super(column.type, column.isNullable());
+      this.column = column;
+    }
+
+    boolean isValid(int row) {
+      return column.isValid(row);
+    }
+
+    public boolean equals(Object that) {
+      return that instanceof Ref && ((Ref) that).column == column;
+    }
+
+    public int hashCode() {
+      return System.identityHashCode(column);
+    }
+  }
+
+  static final class LongRef extends Ref {
+    long[] longs;
+
+    LongRef(Column column) {
+      super(column);
+      this.longs = column.longs;
+    }
+
+    long getLong(int row) { return longs[row]; }
+    double getDouble(int row) { return longs[row]; }
+    String getText(int row) { return null; }
+    int getCode(int row) { return -1; }
+  }
+
+  static final class DoubleRef extends Ref {
+    double[] doubles;
+
+    DoubleRef(Column column) {
+      super(column);
+      this.doubles = column.doubles;
+    }
+
+    long getLong(int row) { return (long) doubles[row]; }
+    double getDouble(int row) { return doubles[row]; }
+    String getText(int row) { return null; }
+    int getCode(int row) { return -1; }
+  }
+
+  static final class LongBufferRef extends Ref {
+    LongBuffer longs;
+
+    LongBufferRef(Column column) {
+      super(column);
+      this.longs = column.longBuffer;
+    }
+
+    long getLong(int row) { return longs.get(row); }
+    double getDouble(int row) { return longs.get(row); }
+    String getText(int row) { return null; }
+    int getCode(int row) { return -1; }
+  }
+
+  static final class DoubleBufferRef extends Ref {
+    DoubleBuffer doubles;
+
+    DoubleBufferRef(Column column) {
+      super(column);
+      this.doubles = column.doubleBuffer;
+    }
+
+    long getLong(int row) { return (long) doubles.get(row); }
+    double getDouble(int row) { return doubles.get(row); }
+    String getText(int row) { return null; }
+    int getCode(int row) { return -1; }
+  }
+
+  /**
+   * A column of mixed cells, read through its numeric type, or through its tags and the arrays of
+   * each type.
+   */
+  static final class MixedRef extends Ref {
+    MixedRef(Column column) {
+      super(column);
+      this.mixed = true;
+    }
+
+    long getLong(int row) { return column.longs[row]; }
+    double getDouble(int row) { return column.getDouble(row); }
+    String getText(int row) { return column.dictionary.decode(column.codes[row]); }
+    int getCode(int row) { return column.codes[row]; }
+    Dictionary dictionary() { return column.dictionary; }
+    byte tag(int row) { return column.tags[row]; }
+  }
+
+  static final class TextRef extends Ref {
+    TextRef(Column column) {
+      super(column);
+    }
+
+    long getLong(int row) { return 0L; }
+    double getDouble(int row) { return 0.0; }
+    String getText(int row) { return column.getText(row); }
+    int getCode(int row) { return column.getCode(row); }
+    Dictionary dictionary() { return column.dictionary; }
+  }
+
+  /**
+   * A column read through a selection vector: row `i` is row `rows[i]` of the column.
+   */
+  static final class Select extends Expr {
+    Ref source;
+    int[] rows;
+
+    Select(Ref source, int[] rows) {
+      super(source.type, source.nullable);
+      this.source = source;
+      this.rows = rows;
+      this.mixed = source.mixed;
+    }
+
+    long getLong(int row) { return source.getLong(rows[row]); }
+    double getDouble(int row) { return source.getDouble(rows[row]); }
+    String getText(int row) { return source.getText(rows[row]); }
+    int getCode(int row) { return source.getCode(rows[row]); }
+    Dictionary dictionary() { return source.dictionary(); }
+    boolean isValid(int row) { return source.isValid(rows[row]); }
+    byte tag(int row) { return source.tag(rows[row]); }
+
+    public boolean equals(Object that) {
+      return that instanceof Select && ((Select) that).source.column == source.column && ((Select) that).rows == rows;
+    }
+
+    public int hashCode() {
+      return 31 * System.identityHashCode(source.column) + System.identityHashCode(rows);
+    }
+  }
+
+  /**
+   * A column read through a selection vector in which row -1 is NA.
+   */
+  static final class SelectOrNA extends Expr {
+    Ref source;
+    int[] rows;
+
+    SelectOrNA(Ref source, int[] rows) {
+      super(source.type, true);
+      this.source = source;
+      this.rows = rows;
+      this.mixed = source.mixed;
+    }
+
+    long getLong(int row) { return rows[row] < 0 ? 0L : source.getLong(rows[row]); }
+    double getDouble(int row) { return rows[row] < 0 ? 0.0 : source.getDouble(rows[row]); }
+    String getText(int row) { return rows[row] < 0 ? null : source.getText(rows[row]); }
+    int getCode(int row) { return rows[row] < 0 ? -1 : source.getCode(rows[row]); }
+    Dictionary dictionary() { return source.dictionary(); }
+    boolean isValid(int row) { return rows[row] >= 0 && source.isValid(rows[row]); }
+    byte tag(int row) { return rows[row] < 0 ? Column.NoTag : source.tag(rows[row]); }
+
+    public boolean equals(Object that) {
+      return that instanceof SelectOrNA && ((SelectOrNA) that).source.column == source.column && ((SelectOrNA) that).rows == rows;
+    }
+
+    public int hashCode() {
+      return 17 * System.identityHashCode(source.column) + System.identityHashCode(rows);
+    }
+  }
+
+  static final class NA extends Expr {
+    NA() {
+      this(Column.Type.INTEGER);
+    }
+
+    // A column of type `type` with no valid cells:
+    NA(Column.Type type) {
+      super(type, true);
+    }
+
+    long getLong(int row) { return 0L; }
+    double getDouble(int row) { return 0.0; }
+    String getText(int row) { return null; }
+    int getCode(int row) { return -1; }
+    boolean isValid(int row) { return false; }
+
+    public boolean equals(Object that) {
+      return that instanceof NA && ((NA) that).type == type;
+    }
+
+    public int hashCode() {
+      return type.hashCode();
+    }
+  }
+
+  abstract static class Binary extends Expr {
+    String symbol;
+    Expr left;
+    Expr right;
+    int hash;
+
+    Binary(Column.Type type, String symbol, Expr left, Expr right) {
+      this(type, symbol, left, right, left.nullable || right.nullable);
+    }
+
+    Binary(Column.Type type, String symbol, Expr left, Expr right, boolean nullable) {
+      super(type, nullable);
+      this.symbol = symbol;
+      this.left = left;
+      this.right = right;
+      this.hash = (31 * (31 * type.ordinal() + symbol.hashCode()) + left.hashCode()) * 31 + right.hashCode();
+    }
+
+    boolean isValid(int row) {
+      return left.isValid(row) && right.isValid(row);
+    }
+
+    // Whether this divides integers, and so is NA where its divisor is zero (see `Evaluator.divisors`):
+    boolean dividesIntegers() {
+      return false;
+    }
+
+    // Operators are numeric:
+    String getText(int row) { return null; }
+    int getCode(int row) { return -1; }
+
+    public boolean equals(Object that) {
+      if (this == that) return true;
+      if (that == null || that.getClass() != getClass() || ((Binary) that).hash != hash) return false;
+      return left.equals(((Binary) that).left) && right.equals(((Binary) that).right);
+    }
+
+    public int hashCode() {
+      return hash;
+    }
+  }
+
+  // Integer nodes also answer `getDouble`, so that a decimal parent promotes the integer result
+  // rather than recomputing it in floating point.
+
+  static final class LongPlus extends Binary {
+    LongPlus(Expr left, Expr right) { super(Column.Type.INTEGER, "+", left, right); }
+
+    long getLong(int row) { return left.getLong(row) + right.getLong(row); }
+    double getDouble(int row) { return getLong(row); }
+  }
+
+  static final class LongMinus extends Binary {
+    LongMinus(Expr left, Expr right) { super(Column.Type.INTEGER, "-", left, right); }
+
+    long getLong(int row) { return left.getLong(row) - right.getLong(row); }
+    double getDouble(int row) { return getLong(row); }
+  }
+
+  static final class LongTimes extends Binary {
+    LongTimes(Expr left, Expr right) { super(Column.Type.INTEGER, "*", left, right); }
+
+    long getLong(int row) { return left.getLong(row) * right.getLong(row); }
+    double getDouble(int row) { return getLong(row); }
+  }
+
+  static final class LongDivide extends Binary {
+    LongDivide(Expr left, Expr right) { super(Column.Type.INTEGER, "/", left, right, true); }
+
+    long getLong(int row) {
+      long divisor = right.getLong(row);
+      return divisor == 0 ? 0 : left.getLong(row) / divisor;
+    }
+    double getDouble(int row) { return getLong(row); }
+    boolean isValid(int row) { return left.isValid(row) && right.isValid(row) && right.getLong(row) != 0; }
+    boolean dividesIntegers() { return true; }
+  }
+
+  static final class DoublePlus extends Binary {
+    DoublePlus(Expr left, Expr right) { super(Column.Type.DECIMAL, "+", left, right); }
+
+    long getLong(int row) { return (long) getDouble(row); }
+    double getDouble(int row) { return left.getDouble(row) + right.getDouble(row); }
+  }
+
+  static final class DoubleMinus extends Binary {
+    DoubleMinus(Expr left, Expr right) { super(Column.Type.DECIMAL, "-", left, right); }
+
+    long getLong(int row) { return (long) getDouble(row); }
+    double getDouble(int row) { return left.getDouble(row) - right.getDouble(row); }
+  }
+
+  static final class DoubleTimes extends Binary {
+    DoubleTimes(Expr left, Expr right) { super(Column.Type.DECIMAL, "*", left, right); }
+
+    long getLong(int row) { return (long) getDouble(row); }
+    double getDouble(int row) { return left.getDouble(row) * right.getDouble(row); }
+  }
+
+  static final class DoubleDivide extends Binary {
+    DoubleDivide(Expr left, Expr right) { super(Column.Type.DECIMAL, "/", left, right); }
+
+    long getLong(int row) { return (long) getDouble(row); }
+    double getDouble(int row) { return left.getDouble(row) / right.getDouble(row); }
+  }
+
+  /**
+   * An operator over a mixed operand, which computes each row as the boxed cells of the baseline
+   * dataset did: integer arithmetic, with integer division, where both cells are integers, and
+   * decimal arithmetic otherwise. Its rows are tagged accordingly, and read as decimals.
+   */
+  static final class MixedBinary extends Binary {
+    static final byte IntegerTag = (byte) Column.Type.INTEGER.ordinal();
+    static final byte DecimalTag = (byte) Column.Type.DECIMAL.ordinal();
+
+    char operator;
+
+    MixedBinary(String symbol, Expr left, Expr right) {
+      super(Column.Type.DECIMAL, symbol, left, right, left.nullable || right.nullable || symbol.equals("/"));
+      this.operator = symbol.charAt(0);
+      this.mixed = true;
+    }
+
+    private boolean integers(int row) {
+      return left.tag(row) == IntegerTag && right.tag(row) == IntegerTag;
+    }
+
+    long getLong(int row) {
+      long l = left.getLong(row), r = right.getLong(row);
+      switch (operator) {
+        case '+': return l + r;
+        case '-': return l - r;
+        case '*': return l * r;
+        default:  return r == 0 ? 0 : l / r;
+      }
+    }
+
+    double getDouble(int row) {
+      if (integers(row)) return getLong(row);
+
+      double l = left.getDouble(row), r = right.getDouble(row);
+      switch (operator) {
+        case '+': return l + r;
+        case '-': return l - r;
+        case '*': return l * r;
+        default:  return l / r;
+      }
+    }
+
+    boolean isValid(int row) {
+      if (!left.isValid(row) || !right.isValid(row)) return false;
+      // Integer division by zero is NA, as in `LongDivide`:
+      return operator != '/' || !integers(row) || right.getLong(row) != 0;
+    }
+
+    boolean dividesIntegers() {
+      return operator == '/';
+    }
+
+    byte tag(int row) {
+      return !isValid(row) ? Column.NoTag : integers(row) ? IntegerTag : DecimalTag;
+    }
+  }
+}
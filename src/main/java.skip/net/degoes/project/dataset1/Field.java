@@ -5,4 +5,26 @@ public class Field {
   public Field(String name) {
     this.name = name;
   }
+
+  // Predicates on the values of this field, for `Dataset.filter`:
+
+  public Predicate lessThan(long value) { return new Predicate.Compare(this, Predicate.Less, value); }
+  public Predicate lessThan(double value) { return new Predicate.Compare(this, Predicate.Less, value); }
+
+  public Predicate atMost(long value) { return new Predicate.Compare(this, Predicate.Less | Predicate.Equal, value); }
+  public Predicate atMost(double value) { return new Predicate.Compare(this, Predicate.Less | Predicate.Equal, value); }
+
+  public Predicate greaterThan(long value) { return new Predicate.Compare(this, Predicate.Greater, value); }
+  public Predicate greaterThan(double value) { return new Predicate.Compare(this, Predicate.Greater, value); }
+
+  public Predicate atLeast(long value) { return new Predicate.Compare(this, Predicate.Greater | Predicate.Equal, value); }
+  public Predicate atLeast(double value) { return new Predicate.Compare(this, Predicate.Greater | Predicate.Equal, value); }
+
+  public Predicate equalTo(long value) { return new Predicate.Compare(this, Predicate.Equal, value); }
+  public Predicate equalTo(double value) { return new Predicate.Compare(this, Predicate.Equal, value); }
+  public Predicate equalTo(String value) { return new Predicate.Compare(this, Predicate.Equal, value); }
+
+  public Predicate notEqualTo(long value) { return new Predicate.Compare(this, Predicate.Less | Predicate.Greater, value); }
+  public Predicate notEqualTo(double value) { return new Predicate.Compare(this, Predicate.Less | Predicate.Greater, value); }
+  public Predicate notEqualTo(String value) { return new Predicate.Compare(this, Predicate.Less | Predicate.Greater, value); }
 }
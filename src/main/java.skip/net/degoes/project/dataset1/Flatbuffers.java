@@ -0,0 +1,253 @@
+package net.degoes.project.dataset1;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Just enough of the FlatBuffers encoding to write and read the metadata of Arrow IPC files (see
+ * `ArrowFile`): tables of scalars and references, vectors of tables and of structs, and strings.
+ *
+ * Writing builds a tree of `Node`s and lays it out front to back: every table is preceded by its
+ * vtable and followed by the objects it references, so all references point forward as the format
+ * requires. Reading works on a little-endian buffer holding one flatbuffer, by absolute position;
+ * position 0 stands for an absent object.
+ */
+final class Flatbuffers {
+  private Flatbuffers() {}
+
+  abstract static class Node {
+    // Appends this object to `out`, returning its position:
+    abstract int write(Output out);
+  }
+
+  static final class Table extends Node {
+    ArrayList<long[]> scalars = new ArrayList<>();
+    ArrayList<Object[]> references = new ArrayList<>();
+
+    /**
+     * Sets field `id` to the low `size` bytes of `value`.
+     */
+    Table scalar(int id, int size, long value) {
+      scalars.add(new long[] {id, size, value});
+      return this;
+    }
+
+    Table reference(int id, Node node) {
+      if (node != null) references.add(new Object[] {id, node});
+      return this;
+    }
+
+    int write(Output out) {
+      int fields = 0;
+      for (long[] scalar : scalars) fields = Math.max(fields, (int) scalar[0] + 1);
+      for (Object[] reference : references) fields = Math.max(fields, (int) reference[0] + 1);
+
+      // Lay out the largest fields first, so that every field is aligned to its size:
+      int[] offsets = new int[fields];
+      int size = 4, alignment = 4;
+      for (int width = 8; width >= 1; width >>>= 1) {
+        for (long[] scalar : scalars) {
+          if (scalar[1] != width) continue;
+          size = (size + width - 1) & -width;
+          offsets[(int) scalar[0]] = size;
+          size += width;
+          alignment = Math.max(alignment, width);
+        }
+        if (width == 4) {
+          for (Object[] reference : references) {
+            offsets[(int) reference[0]] = size;
+            size += 4;
+          }
+        }
+      }
+
+      out.align(2, 0);
+      int vtable = out.position;
+      out.putShort(4 + 2 * fields);
+      out.putShort(size);
+      for (int offset : offsets) out.putShort(offset);
+
+      out.align(alignment, 0);
+      int table = out.position;
+      out.putInt(table - vtable);
+      out.skip(size - 4);
+      for (long[] scalar : scalars) out.put(table + offsets[(int) scalar[0]], (int) scalar[1], scalar[2]);
+      for (Object[] reference : references) {
+        int at = table + offsets[(int) reference[0]];
+        int target = ((Node) reference[1]).write(out);
+        out.put(at, 4, target - at);
+      }
+      return table;
+    }
+  }
+
+  static final class Tables extends Node {
+    Node[] tables;
+
+    Tables(Node... tables) {
+      this.tables = tables;
+    }
+
+    int write(Output out) {
+      out.align(4, 0);
+      int vector = out.position;
+      out.putInt(tables.length);
+      out.skip(4 * tables.length);
+      for (int i = 0; i < tables.length; i++) {
+        int at = vector + 4 + 4 * i;
+        out.put(at, 4, tables[i].write(out) - at);
+      }
+      return vector;
+    }
+  }
+
+  /**
+   * A vector of structs of 8-byte fields, `fields` per struct; `values` holds them all in order.
+   */
+  static final class Structs extends Node {
+    int fields;
+    long[] values;
+
+    Structs(int fields, long[] values) {
+      this.fields = fields;
+      this.values = values;
+    }
+
+    int write(Output out) {
+      // The elements, not the length before them, are aligned to 8:
+      out.align(8, 4);
+      int vector = out.position;
+      out.putInt(values.length / fields);
+      for (long value : values) out.put(out.skip(8), 8, value);
+      return vector;
+    }
+  }
+
+  static final class Text extends Node {
+    byte[] utf8;
+
+    Text(String value) {
+      this.utf8 = value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    int write(Output out) {
+      out.align(4, 0);
+      int string = out.position;
+      out.putInt(utf8.length);
+      for (byte b : utf8) out.put(out.skip(1), 1, b);
+      out.skip(1);
+      return string;
+    }
+  }
+
+  /**
+   * Encodes `root` as a flatbuffer, padded to a multiple of 8 bytes.
+   */
+  static byte[] encode(Node root) {
+    Output out = new Output();
+    out.skip(4);
+    out.put(0, 4, root.write(out));
+    out.align(8, 0);
+    return Arrays.copyOf(out.bytes, out.position);
+  }
+
+  static final class Output {
+    byte[] bytes = new byte[256];
+    int position = 0;
+
+    // Moves on to the next position that is `remainder` past a multiple of `alignment`:
+    void align(int alignment, int remainder) {
+      while ((position - remainder & (alignment - 1)) != 0) skip(1);
+    }
+
+    // Reserves `length` zero bytes, returning where they start:
+    int skip(int length) {
+      if (position + length > bytes.length) bytes = Arrays.copyOf(bytes, Math.max(2 * bytes.length, position + length));
+      position += length;
+      return position - length;
+    }
+
+    void putShort(int value) {
+      put(skip(2), 2, value);
+    }
+
+    void putInt(int value) {
+      put(skip(4), 4, value);
+    }
+
+    void put(int at, int size, long value) {
+      for (int i = 0; i < size; i++) bytes[at + i] = (byte) (value >>> (8 * i));
+    }
+  }
+
+  static ByteBuffer wrap(byte[] bytes) {
+    return ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+  }
+
+  static int root(ByteBuffer buffer) {
+    return buffer.getInt(0);
+  }
+
+  // The position of field `id` of `table`, or 0 if it is absent:
+  static int field(ByteBuffer buffer, int table, int id) {
+    int vtable = table - buffer.getInt(table);
+    int entry = 4 + 2 * id;
+    if (entry >= (buffer.getShort(vtable) & 0xFFFF)) return 0;
+    int offset = buffer.getShort(vtable + entry) & 0xFFFF;
+    return offset == 0 ? 0 : table + offset;
+  }
+
+  static long getLong(ByteBuffer buffer, int table, int id, long otherwise) {
+    int field = field(buffer, table, id);
+    return field == 0 ? otherwise : buffer.getLong(field);
+  }
+
+  static int getInt(ByteBuffer buffer, int table, int id, int otherwise) {
+    int field = field(buffer, table, id);
+    return field == 0 ? otherwise : buffer.getInt(field);
+  }
+
+  static int getShort(ByteBuffer buffer, int table, int id, int otherwise) {
+    int field = field(buffer, table, id);
+    return field == 0 ? otherwise : buffer.getShort(field);
+  }
+
+  static int getByte(ByteBuffer buffer, int table, int id, int otherwise) {
+    int field = field(buffer, table, id);
+    return field == 0 ? otherwise : buffer.get(field) & 0xFF;
+  }
+
+  /**
+   * The position of the table, vector or string that field `id` of `table` references, or 0.
+   */
+  static int reference(ByteBuffer buffer, int table, int id) {
+    int field = field(buffer, table, id);
+    return field == 0 ? 0 : field + buffer.getInt(field);
+  }
+
+  static int length(ByteBuffer buffer, int vector) {
+    return vector == 0 ? 0 : buffer.getInt(vector);
+  }
+
+  // The table at `index` of a vector of tables:
+  static int table(ByteBuffer buffer, int vector, int index) {
+    int at = vector + 4 + 4 * index;
+    return at + buffer.getInt(at);
+  }
+
+  // Field `field` of the struct at `index` of a vector of 8-byte-field structs of `fields` fields:
+  static long struct(ByteBuffer buffer, int vector, int index, int fields, int field) {
+    return buffer.getLong(vector + 4 + 8 * (index * fields + field));
+  }
+
+  static String string(ByteBuffer buffer, int table, int id) {
+    int string = reference(buffer, table, id);
+    if (string == 0) return null;
+    byte[] utf8 = new byte[buffer.getInt(string)];
+    buffer.get(string + 4, utf8);
+    return new String(utf8, StandardCharsets.UTF_8);
+  }
+}
@@ -0,0 +1,193 @@
+package net.degoes.project.dataset1;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+
+/**
+ * Hash join of two `ChunkedDataset`s, within a memory budget.
+ *
+ * The right dataset is the build side. It is read batch by batch until either it ends, and then
+ * it is joined in memory (see `Join`) with every batch of the left dataset as it streams past, or
+ * it exceeds the budget. In the latter case both sides are split by a hash of their keys into
+ * `Partitions` partitions, written to disk as `DatasetFile`s, and joined partition by partition:
+ * rows with equal keys always land in the same partition, so only one partition of the build side
+ * needs to be in memory at a time.
+ *
+ * The hash used for partitioning depends on key values alone, never on dictionary codes or on
+ * whether a key is an integer or a decimal, so that equal keys of different batches and of the two
+ * sides agree. Build rows with NA keys never match and are dropped; left rows with NA keys go to
+ * partition 0, where a left join keeps them.
+ */
+final class GraceJoin {
+  static final int PartitionBits = 5;
+  static final int Partitions = 1 << PartitionBits;
+
+  static ChunkedDataset.Batches join(ChunkedDataset left, ChunkedDataset right, Field[] fields, boolean outer) throws IOException {
+    ArrayList<Dataset> buffered = new ArrayList<>();
+    long bytes = 0;
+    ChunkedDataset.Batches builds = right.batches();
+    try {
+      while (builds.hasNext() && bytes <= left.memoryBytes) {
+        Dataset batch = builds.next().materialize();
+        buffered.add(batch);
+        bytes += ChunkedDataset.bytes(batch);
+      }
+      if (!builds.hasNext()) {
+        builds.close();
+        // Without build rows, a left join still has the right columns, all NA, and an inner join the columns of a join but no rows:
+        if (buffered.isEmpty() && !outer) return ChunkedDataset.single(Join.join(ChunkedDataset.empty(left.schema()), ChunkedDataset.empty(right.schema()), fields, false));
+        return inMemory(left, ChunkedDataset.concat(buffered, buffered.isEmpty() ? right.schema() : null), fields, outer);
+      }
+    } catch (IOException | RuntimeException ex) {
+      builds.close();
+      throw ex;
+    }
+
+    Spill spill = new Spill(left.spillDirectory);
+    try {
+      Schema schema = buffered.get(0).schema();
+      List<List<Path>> buildFiles = partition(buffered, builds, fields, spill, "build", false);
+      buffered = null;
+      List<List<Path>> probeFiles;
+      try (ChunkedDataset.Batches probes = left.batches()) {
+        probeFiles = partition(new ArrayList<>(), probes, fields, spill, "probe", outer);
+      }
+      return partitioned(buildFiles, probeFiles, schema, fields, outer, left.execution, spill);
+    } catch (IOException | RuntimeException ex) {
+      // The build side is closed once read to the end, but not if partitioning it failed:
+      builds.close();
+      spill.close();
+      throw ex;
+    }
+  }
+
+  /**
+   * The columns of the join of `left` with `right`, as `Join` gives them for any batches.
+   */
+  static Schema schema(ChunkedDataset left, ChunkedDataset right, Field[] fields, boolean outer) throws IOException {
+    return Join.join(ChunkedDataset.empty(left.schema()), ChunkedDataset.empty(right.schema()), fields, outer).schema();
+  }
+
+  // Streams the left batches past one build side held in memory:
+  private static ChunkedDataset.Batches inMemory(ChunkedDataset left, Dataset build, Field[] fields, boolean outer) throws IOException {
+    ChunkedDataset.Batches probes = left.batches();
+    Join join = new Join(build, fields);
+    return new ChunkedDataset.Batches() {
+      public boolean hasNext() {
+        return probes.hasNext();
+      }
+
+      public Dataset next() {
+        return join.probe(probes.next(), outer);
+      }
+
+      public void close() {
+        probes.close();
+      }
+    };
+  }
+
+  // Joins the spilled partitions one at a time, deleting the spill when closed:
+  private static ChunkedDataset.Batches partitioned(List<List<Path>> buildFiles, List<List<Path>> probeFiles, Schema schema, Field[] fields, boolean outer, Execution execution, Spill spill) {
+    return new ChunkedDataset.Batches() {
+      int partition = -1;
+      int file = 0;
+      Join join = null;
+
+      public boolean hasNext() {
+        while (partition < Partitions && (partition < 0 || file == probeFiles.get(partition).size())) {
+          partition++;
+          file = 0;
+          join = null;
+        }
+        return partition < Partitions;
+      }
+
+      public Dataset next() {
+        if (!hasNext()) throw new NoSuchElementException();
+
+        try {
+          if (join == null) {
+            ArrayList<Dataset> builds = new ArrayList<>();
+            for (Path path : buildFiles.get(partition)) builds.add(DatasetFile.open(path));
+            join = new Join(ChunkedDataset.concat(builds, schema).withExecution(execution), fields);
+          }
+          return join.probe(DatasetFile.open(probeFiles.get(partition).get(file++)).withExecution(execution), outer);
+        } catch (IOException ex) {
+          throw new UncheckedIOException(ex);
+        }
+      }
+
+      public void close() {
+        try {
+          spill.close();
+        } catch (IOException ex) {
+          throw new UncheckedIOException(ex);
+        }
+      }
+    };
+  }
+
+  // Writes the rows of `buffered` and then of `batches` to one file per batch and partition:
+  private static List<List<Path>> partition(ArrayList<Dataset> buffered, ChunkedDataset.Batches batches, Field[] fields, Spill spill, String prefix, boolean keepNA) throws IOException {
+    List<List<Path>> files = new ArrayList<>(Partitions);
+    for (int p = 0; p < Partitions; p++) files.add(new ArrayList<>());
+
+    for (int b = 0; b < buffered.size(); b++) {
+      write(buffered.get(b), fields, spill, prefix, keepNA, files);
+      buffered.set(b, null);
+    }
+    while (batches.hasNext()) write(batches.next(), fields, spill, prefix, keepNA, files);
+    return files;
+  }
+
+  private static void write(Dataset batch, Field[] fields, Spill spill, String prefix, boolean keepNA, List<List<Path>> files) throws IOException {
+    Keys keys = new Keys(batch, fields);
+    int[] partitionOf = new int[batch.size];
+    int[] starts = new int[Partitions + 1];
+    long[] key = new long[fields.length];
+    for (int i = 0; i < batch.size; i++) {
+      int p = partition(keys, i, key);
+      if (p < 0 && keepNA) p = 0;
+      partitionOf[i] = p;
+      if (p >= 0) starts[p + 1]++;
+    }
+
+    // Sort rows by partition, keeping their order within each partition:
+    for (int p = 0; p < Partitions; p++) starts[p + 1] += starts[p];
+    int[] ordered = new int[starts[Partitions]];
+    int[] cursors = Arrays.copyOf(starts, Partitions);
+    for (int i = 0; i < partitionOf.length; i++) {
+      if (partitionOf[i] >= 0) ordered[cursors[partitionOf[i]]++] = i;
+    }
+
+    for (int p = 0; p < Partitions; p++) {
+      if (starts[p] == starts[p + 1]) continue;
+
+      Path path = spill.file(prefix + "-" + p);
+      DatasetFile.write(batch.select(Arrays.copyOfRange(ordered, starts[p], starts[p + 1])), path);
+      files.get(p).add(path);
+    }
+  }
+
+  // The partition of the key of `row`, or -1 if it has NA cells:
+  private static int partition(Keys keys, int row, long[] key) {
+    for (int c = 0; c < keys.columns.length; c++) {
+      Column column = keys.columns[c];
+      if (!column.isValid(row)) return -1;
+
+      switch (column.type) {
+        case INTEGER: key[c] = Keys.bits((double) column.getLong(row)); break;
+        case DECIMAL: key[c] = Keys.bits(column.getDouble(row)); break;
+        default:      key[c] = Objects.hashCode(column.getText(row)); break;
+      }
+    }
+    return GroupTable.hash(key, 0, key.length) >>> (32 - PartitionBits);
+  }
+}
@@ -0,0 +1,135 @@
+package net.degoes.project.dataset1;
+
+import java.util.Arrays;
+
+/**
+ * Hash aggregation of one expression by one or more key fields.
+ *
+ * Every row's key is packed into a few longs (see `Keys`). When any key column has NA cells, one
+ * more long holds a bit per NA key, so that NA forms a group of its own. Each worker aggregates
+ * its range of rows into a private `GroupTable`, and the partial tables are merged at the end
+ * (see `Execution.reduceRanges`). Groups come out in order of first appearance.
+ */
+final class GroupBy {
+  enum Op { COUNT, SUM, MEAN, MIN, MAX }
+
+  static Dataset aggregate(Dataset dataset, Field[] fields, Op op, Expr values, String name) {
+    Keys keys = new Keys(dataset, fields);
+
+    int width = fields.length + (keys.nullable ? 1 : 0);
+    boolean integers = values.type == Column.Type.INTEGER;
+    boolean numeric = values.isNumeric();
+    GroupTable table = dataset.execution.reduceRanges(dataset.size,
+      (from, to) -> partial(keys, width, op, values, numeric, from, to),
+      (left, right) -> left.merge(right, op, integers)
+    );
+
+    Column.Type[] types = new Column.Type[fields.length];
+    Dictionary[] dictionaries = new Dictionary[fields.length];
+    for (int c = 0; c < fields.length; c++) {
+      types[c] = keys.columns[c].type;
+      dictionaries[c] = keys.columns[c].dictionary;
+    }
+    return result(table, fields, types, dictionaries, keys.nullable, op, values.type, numeric, name).withExecution(dataset.execution);
+  }
+
+  private static GroupTable partial(Keys keys, int width, Op op, Expr values, boolean numeric, int from, int to) {
+    GroupTable table = new GroupTable(width);
+    accumulate(table, keys, op, values, numeric, from, to);
+    return table;
+  }
+
+  /**
+   * Aggregates rows `[from, to)` into `table`, whose keys have one more long than `keys` for the
+   * NA bits if it is wider.
+   */
+  static void accumulate(GroupTable table, Keys keys, Op op, Expr values, boolean numeric, int from, int to) {
+    long[] key = new long[table.width];
+    boolean integers = values.type == Column.Type.INTEGER;
+    for (int i = from; i < to; i++) {
+      long na = keys.pack(i, key, 0);
+      if (table.width > keys.width()) key[keys.width()] = na;
+
+      int group = table.groupOf(key);
+      if (op == Op.COUNT) table.counts[group]++;
+      else if (!numeric || (values.nullable && !values.isValid(i))) continue;
+      else if (integers) table.add(group, values.getLong(i), op);
+      else table.add(group, values.getDouble(i), op);
+    }
+  }
+
+  /**
+   * One row per group of `table`: the keys, of `types`, then the aggregate, named `name`. Text
+   * keys are codes of `dictionaries`, which the key columns share.
+   */
+  static Dataset result(GroupTable table, Field[] fields, Column.Type[] types, Dictionary[] dictionaries, boolean nullable, Op op, Column.Type valueType, boolean numeric, String name) {
+    String[] names = new String[fields.length + 1];
+    Column[] columns = new Column[fields.length + 1];
+    for (int c = 0; c < fields.length; c++) {
+      names[c] = fields[c].name;
+      columns[c] = keyColumn(table, c, types[c], dictionaries[c], nullable);
+    }
+    names[fields.length] = name;
+    columns[fields.length] = valueColumn(table, op, valueType, numeric);
+    return Dataset.fromColumns(names, columns, table.groups);
+  }
+
+  private static Column keyColumn(GroupTable table, int c, Column.Type type, Dictionary dictionary, boolean nullable) {
+    int groups = table.groups, width = table.width;
+    long[] validity = null;
+    if (nullable) {
+      // The last long of every key holds its NA bits:
+      validity = Bitmap.allocate(groups);
+      for (int g = 0; g < groups; g++) {
+        if ((table.keys[g * width + width - 1] & (1L << c)) == 0) Bitmap.set(validity, g);
+      }
+      validity = Bitmap.compact(validity, groups);
+    }
+
+    switch (type) {
+      case INTEGER: {
+        long[] longs = new long[groups];
+        for (int g = 0; g < groups; g++) longs[g] = table.keys[g * width + c];
+        return Column.integers(longs, validity);
+      }
+      case DECIMAL: {
+        double[] doubles = new double[groups];
+        for (int g = 0; g < groups; g++) doubles[g] = Double.longBitsToDouble(table.keys[g * width + c]);
+        return Column.decimals(doubles, validity);
+      }
+      default: {
+        // Keys are codes of the key column's dictionary, which the result shares:
+        int[] codes = new int[groups];
+        for (int g = 0; g < groups; g++) codes[g] = Bitmap.isValid(validity, g) ? (int) table.keys[g * width + c] : -1;
+        return Column.texts(codes, dictionary, validity);
+      }
+    }
+  }
+
+  private static Column valueColumn(GroupTable table, Op op, Column.Type type, boolean numeric) {
+    int groups = table.groups;
+    if (op == Op.COUNT) return Column.integers(Arrays.copyOf(table.counts, groups));
+
+    // Groups without a single valid value aggregate to NA:
+    long[] validity = Bitmap.allocate(groups);
+    for (int g = 0; g < groups; g++) {
+      if (numeric && table.counts[g] > 0) Bitmap.set(validity, g);
+    }
+    validity = Bitmap.compact(validity, groups);
+
+    if (op == Op.MEAN) {
+      double[] means = new double[groups];
+      for (int g = 0; g < groups; g++) {
+        double sum = type == Column.Type.INTEGER ? table.longs[g] : table.doubles[g] + table.compensations[g];
+        means[g] = table.counts[g] == 0 ? 0.0 : sum / table.counts[g];
+      }
+      return Column.decimals(means, validity);
+    }
+    if (type == Column.Type.DECIMAL) {
+      double[] doubles = new double[groups];
+      for (int g = 0; g < groups; g++) doubles[g] = table.doubles[g] + table.compensations[g];
+      return Column.decimals(doubles, validity);
+    }
+    return Column.integers(Arrays.copyOf(table.longs, groups), validity);
+  }
+}
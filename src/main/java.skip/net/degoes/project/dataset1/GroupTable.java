@@ -0,0 +1,173 @@
+package net.degoes.project.dataset1;
+
+import java.util.Arrays;
+
+/**
+ * An open-addressing hash table from composite primitive keys to dense group numbers, with one
+ * set of primitive accumulators per group.
+ *
+ * A key is `width` longs. Keys are stored once per group, in order of first appearance, and the
+ * slot array holds only `group + 1` (0 for an empty slot), so probing touches a small `int[]`
+ * and rehashing never moves keys. Collisions are resolved by linear probing, at a load factor of
+ * at most 1/2.
+ */
+final class GroupTable {
+  int width;
+  int groups;
+  long[] keys;
+  int[] slots;
+  int mask;
+
+  // Accumulators, indexed by group:
+  long[] counts;
+  long[] longs;
+  double[] doubles;
+  double[] compensations;
+
+  GroupTable(int width) {
+    this.width = width;
+    this.slots = new int[64];
+    this.mask = slots.length - 1;
+    this.keys = new long[32 * width];
+    this.counts = new long[32];
+    this.longs = new long[32];
+    this.doubles = new double[32];
+    this.compensations = new double[32];
+  }
+
+  int groupOf(long[] key) {
+    return groupOf(key, 0);
+  }
+
+  int groupOf(long[] key, int offset) {
+    int slot = hash(key, offset, width) & mask;
+    while (true) {
+      int group = slots[slot] - 1;
+      if (group < 0) return insert(key, offset, slot);
+      if (matches(group, key, offset)) return group;
+      slot = (slot + 1) & mask;
+    }
+  }
+
+  /**
+   * The group of `key`, or -1 if there is none.
+   */
+  int find(long[] key, int offset) {
+    int slot = hash(key, offset, width) & mask;
+    while (true) {
+      int group = slots[slot] - 1;
+      if (group < 0 || matches(group, key, offset)) return group;
+      slot = (slot + 1) & mask;
+    }
+  }
+
+  void add(int group, long value, GroupBy.Op op) {
+    long count = counts[group]++;
+    switch (op) {
+      case MIN: longs[group] = count == 0 ? value : Math.min(longs[group], value); break;
+      case MAX: longs[group] = count == 0 ? value : Math.max(longs[group], value); break;
+      default:  longs[group] += value; break;
+    }
+  }
+
+  void add(int group, double value, GroupBy.Op op) {
+    long count = counts[group]++;
+    switch (op) {
+      case MIN: doubles[group] = count == 0 ? value : Math.min(doubles[group], value); break;
+      case MAX: doubles[group] = count == 0 ? value : Math.max(doubles[group], value); break;
+      default:
+        // Neumaier's compensated summation, as in `Aggregates`:
+        double sum = doubles[group], total = sum + value;
+        if (Math.abs(sum) >= Math.abs(value)) compensations[group] += (sum - total) + value;
+        else compensations[group] += (value - total) + sum;
+        doubles[group] = total;
+        break;
+    }
+  }
+
+  /**
+   * Folds the groups of `that` into this table. Groups new to this table are appended in their
+   * order in `that`, so merging partial tables left to right keeps first-appearance order.
+   */
+  GroupTable merge(GroupTable that, GroupBy.Op op, boolean integers) {
+    for (int g = 0; g < that.groups; g++) {
+      int group = groupOf(that.keys, g * width);
+      combine(group, that.counts[g], that.longs[g], that.doubles[g], that.compensations[g], op, integers);
+    }
+    return this;
+  }
+
+  /**
+   * Folds the accumulators of a group of another table, such as one spilled to disk, into `group`.
+   */
+  void combine(int group, long count, long longValue, double doubleValue, double compensation, GroupBy.Op op, boolean integers) {
+    if (count == 0) return;
+
+    long before = counts[group];
+    if (op == GroupBy.Op.COUNT) {
+      counts[group] = before + count;
+      return;
+    }
+    if (integers) add(group, longValue, op);
+    else {
+      add(group, doubleValue, op);
+      compensations[group] += compensation;
+    }
+    counts[group] = before + count;
+  }
+
+  /**
+   * The heap this table occupies, in bytes, for memory budgets.
+   */
+  long bytes() {
+    return 8L * keys.length + 4L * slots.length + 32L * counts.length;
+  }
+
+  private boolean matches(int group, long[] key, int offset) {
+    int base = group * width;
+    for (int i = 0; i < width; i++) {
+      if (keys[base + i] != key[offset + i]) return false;
+    }
+    return true;
+  }
+
+  private int insert(long[] key, int offset, int slot) {
+    int group = groups++;
+    if (group == counts.length) grow();
+    System.arraycopy(key, offset, keys, group * width, width);
+    slots[slot] = group + 1;
+    if (2 * groups > slots.length) rehash();
+    return group;
+  }
+
+  private void grow() {
+    int capacity = counts.length * 2;
+    keys = Arrays.copyOf(keys, capacity * width);
+    counts = Arrays.copyOf(counts, capacity);
+    longs = Arrays.copyOf(longs, capacity);
+    doubles = Arrays.copyOf(doubles, capacity);
+    compensations = Arrays.copyOf(compensations, capacity);
+  }
+
+  private void rehash() {
+    slots = new int[slots.length * 2];
+    mask = slots.length - 1;
+    for (int group = 0; group < groups; group++) {
+      int slot = hash(keys, group * width, width) & mask;
+      while (slots[slot] != 0) slot = (slot + 1) & mask;
+      slots[slot] = group + 1;
+    }
+  }
+
+  static int hash(long[] key, int offset, int width) {
+    long hash = 0x9E3779B97F4A7C15L;
+    for (int i = 0; i < width; i++) {
+      hash = Long.rotateLeft(hash ^ key[offset + i] * 0xC2B2AE3D27D4EB4FL, 31) * 0x9E3779B97F4A7C15L;
+    }
+    // Keys such as small integers differ only in low bits; spread them over the whole word:
+    hash ^= hash >>> 33;
+    hash *= 0xFF51AFD7ED558CCDL;
+    hash ^= hash >>> 33;
+    return (int) hash;
+  }
+}
@@ -0,0 +1,44 @@
+package net.degoes.project.dataset1;
+
+/**
+ * The rows of a dataset grouped by key fields. Every aggregate returns a dataset with one row
+ * per group, in order of first appearance: the key fields, followed by the aggregate.
+ */
+public final class GroupedDataset {
+  Dataset dataset;
+  Field[] fields;
+
+  GroupedDataset(Dataset dataset, Field[] fields) {
+    this.dataset = dataset;
+    this.fields = fields.clone();
+  }
+
+  /**
+   * The number of rows of every group, in a column named `count`.
+   */
+  public Dataset count() {
+    return GroupBy.aggregate(dataset, fields, GroupBy.Op.COUNT, new Expr.NA(), "count");
+  }
+
+  public Dataset sum(Field field) {
+    return aggregate(GroupBy.Op.SUM, field, "sum");
+  }
+
+  public Dataset mean(Field field) {
+    return aggregate(GroupBy.Op.MEAN, field, "mean");
+  }
+
+  public Dataset min(Field field) {
+    return aggregate(GroupBy.Op.MIN, field, "min");
+  }
+
+  public Dataset max(Field field) {
+    return aggregate(GroupBy.Op.MAX, field, "max");
+  }
+
+  private Dataset aggregate(GroupBy.Op op, Field field, String name) {
+    // As with `Dataset.sum`, a missing field aggregates to NA:
+    Expr values = dataset.apply(field).single();
+    return GroupBy.aggregate(dataset, fields, op, values == null ? new Expr.NA() : values, name + "(" + field.name + ")");
+  }
+}
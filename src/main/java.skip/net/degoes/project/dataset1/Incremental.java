@@ -0,0 +1,26 @@
+package net.degoes.project.dataset1;
+
+import java.util.function.Supplier;
+
+/**
+ * The current value of an aggregate of an `AppendableDataset`. Appends update the state behind
+ * it from the appended rows alone; the value is computed from that state when first asked for
+ * after an append, and remembered until the next one.
+ */
+public final class Incremental<A> {
+  Supplier<A> compute;
+  A value = null;
+
+  Incremental(Supplier<A> compute) {
+    this.compute = compute;
+  }
+
+  public A value() {
+    A result = value;
+    if (result == null) {
+      result = compute.get();
+      value = result;
+    }
+    return result;
+  }
+}
@@ -0,0 +1,202 @@
+package net.degoes.project.dataset1;
+
+import java.util.Arrays;
+
+/**
+ * Hash equi-join of two datasets on key fields.
+ *
+ * The right dataset is the build side. Its keys are packed (see `Keys`) and its rows partitioned
+ * by hash; each partition then builds its own `GroupTable` from key to distinct key number, with
+ * the rows of each key chained through `next`. Partitions share nothing, so they build in
+ * parallel without locks. Left rows then probe the tables morsel by morsel.
+ *
+ * The result pairs left rows with right rows through two selection vectors, so no column is
+ * copied (see `Expr.select`). Rows come out in left order, and the matches of one left row in
+ * right order. NA keys never match.
+ */
+final class Join {
+  Dataset right;
+  Field[] fields;
+
+  // The build side, built for probe keys of `types` (see `Keys.align`):
+  Keys build;
+  Column.Type[] types;
+  boolean comparable;
+  int shift;
+  GroupTable[] tables;
+  int[][] heads;
+  int[] next;
+
+  static Dataset join(Dataset left, Dataset right, Field[] fields, boolean outer) {
+    return new Join(right, fields).probe(left, outer);
+  }
+
+  /**
+   * A join against `right`, whose hash tables are built on the first probe and reused by later
+   * probes with keys of the same types, such as the batches of a `ChunkedDataset`.
+   */
+  Join(Dataset right, Field[] fields) {
+    this.right = right;
+    this.fields = fields;
+  }
+
+  Dataset probe(Dataset left, boolean outer) {
+    Keys probe = new Keys(left, fields);
+    Execution execution = left.execution;
+    if (tables == null || !Arrays.equals(types(probe), types)) build(probe, execution);
+    else comparable = Keys.align(probe, build);
+
+    int width = fields.length;
+    int shift = this.shift;
+    GroupTable[] tables = this.tables;
+    int[][] heads = this.heads;
+    int[] next = this.next;
+    boolean comparable = this.comparable;
+
+    // Probe, collecting the pairs of every morsel separately, then concatenate them in order:
+    int morselRows = execution.morselRows;
+    int morsels = (left.size + morselRows - 1) / morselRows;
+    int[][] leftParts = new int[morsels][];
+    int[][] rightParts = new int[morsels][];
+    int[] counts = new int[morsels];
+    execution.forEachMorsel(left.size, (from, to) -> {
+      int[] lefts = new int[to - from], rights = new int[to - from];
+      int count = 0;
+      long[] key = new long[width];
+      for (int i = from; i < to; i++) {
+        int matched = count;
+        if (comparable && probe.pack(i, key, 0) == 0) {
+          int p = partition(GroupTable.hash(key, 0, width), shift);
+          int found = tables[p].find(key, 0);
+          for (int row = found < 0 ? -1 : heads[p][found]; row >= 0; row = next[row]) {
+            if (count == lefts.length) {
+              lefts = Arrays.copyOf(lefts, count * 2);
+              rights = Arrays.copyOf(rights, count * 2);
+            }
+            lefts[count] = i;
+            rights[count++] = row;
+          }
+        }
+        if (outer && count == matched) {
+          if (count == lefts.length) {
+            lefts = Arrays.copyOf(lefts, count * 2);
+            rights = Arrays.copyOf(rights, count * 2);
+          }
+          lefts[count] = i;
+          rights[count++] = -1;
+        }
+      }
+      leftParts[from / morselRows] = lefts;
+      rightParts[from / morselRows] = rights;
+      counts[from / morselRows] = count;
+    });
+
+    int size = 0;
+    for (int count : counts) size += count;
+    int[] leftRows = new int[size], rightRows = new int[size];
+    for (int m = 0, offset = 0; m < morsels; offset += counts[m], m++) {
+      System.arraycopy(leftParts[m], 0, leftRows, offset, counts[m]);
+      System.arraycopy(rightParts[m], 0, rightRows, offset, counts[m]);
+    }
+
+    return result(left, right, fields, leftRows, rightRows, outer, size);
+  }
+
+  private void build(Keys probe, Execution execution) {
+    Keys build = new Keys(right, fields);
+    this.comparable = Keys.align(probe, build);
+    this.build = build;
+    this.types = types(probe);
+
+    int width = fields.length;
+    int partitions = 1;
+    while (execution.isParallel(right.size) && partitions < 4 * execution.parallelism) partitions <<= 1;
+    int shift = 32 - Integer.numberOfTrailingZeros(partitions);
+    this.shift = shift;
+
+    // Pack the build keys, and find the partition of every build row (-1 for NA keys):
+    long[] buildKeys = new long[right.size * width];
+    int[] partitionOf = new int[right.size];
+    execution.forEachMorsel(right.size, (from, to) -> {
+      for (int i = from; i < to; i++) {
+        if (build.pack(i, buildKeys, i * width) != 0) partitionOf[i] = -1;
+        else partitionOf[i] = partition(GroupTable.hash(buildKeys, i * width, width), shift);
+      }
+    });
+
+    // Sort build rows by partition, keeping row order within each partition:
+    int[] starts = new int[partitions + 1];
+    for (int partition : partitionOf) if (partition >= 0) starts[partition + 1]++;
+    for (int p = 0; p < partitions; p++) starts[p + 1] += starts[p];
+    int[] ordered = new int[starts[partitions]];
+    int[] cursors = Arrays.copyOf(starts, partitions);
+    for (int i = 0; i < partitionOf.length; i++) {
+      if (partitionOf[i] >= 0) ordered[cursors[partitionOf[i]]++] = i;
+    }
+
+    GroupTable[] tables = new GroupTable[partitions];
+    int[][] heads = new int[partitions][];
+    int[] next = new int[right.size];
+    execution.forEachTask(partitions, p -> {
+      GroupTable table = new GroupTable(width);
+      int[] head = new int[0];
+      // Rows are chained in reverse, so that every chain lists its rows in ascending order:
+      for (int k = starts[p + 1] - 1; k >= starts[p]; k--) {
+        int row = ordered[k];
+        int key = table.groupOf(buildKeys, row * width);
+        if (key == head.length) {
+          head = Arrays.copyOf(head, Math.max(16, head.length * 2));
+          Arrays.fill(head, key, head.length, -1);
+        }
+        next[row] = head[key];
+        head[key] = row;
+      }
+      tables[p] = table;
+      heads[p] = head;
+    });
+    this.tables = tables;
+    this.heads = heads;
+    this.next = next;
+  }
+
+  private static Column.Type[] types(Keys keys) {
+    Column.Type[] types = new Column.Type[keys.columns.length];
+    for (int c = 0; c < types.length; c++) types[c] = keys.columns[c].type;
+    return types;
+  }
+
+  // The left columns, then the right columns except the join keys. Right columns whose names
+  // are already taken are renamed to `that.<name>`.
+  private static Dataset result(Dataset left, Dataset right, Field[] fields, int[] leftRows, int[] rightRows, boolean outer, int size) {
+    Expr[] lefts = left.materialized != null ? left.materialized.exprs : left.exprs;
+    Expr[] rights = right.materialized != null ? right.materialized.exprs : right.exprs;
+
+    String[] names = new String[lefts.length + rights.length];
+    Expr[] exprs = new Expr[names.length];
+    int count = 0;
+    for (int c = 0; c < lefts.length; c++) {
+      names[count] = left.names[c];
+      exprs[count++] = Expr.select(lefts[c], leftRows);
+    }
+    for (int c = 0; c < rights.length; c++) {
+      if (isKey(right.names[c], fields)) continue;
+
+      boolean taken = Arrays.asList(left.names).contains(right.names[c]);
+      names[count] = taken ? "that." + right.names[c] : right.names[c];
+      exprs[count++] = outer ? Expr.selectOrNA(rights[c], rightRows) : Expr.select(rights[c], rightRows);
+    }
+    return new Dataset(Arrays.copyOf(names, count), Arrays.copyOf(exprs, count), size, left.execution);
+  }
+
+  private static boolean isKey(String name, Field[] fields) {
+    for (Field field : fields) {
+      if (field.name.equals(name)) return true;
+    }
+    return false;
+  }
+
+  private static int partition(int hash, int shift) {
+    // The top bits pick the partition; the table of each partition probes with the low bits:
+    return shift == 32 ? 0 : hash >>> shift;
+  }
+}
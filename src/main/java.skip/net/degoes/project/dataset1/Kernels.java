@@ -0,0 +1,79 @@
+package net.degoes.project.dataset1;
+
+/**
+ * Primitive arithmetic kernels over array slices.
+ *
+ * `Instance` is chosen once, at startup: `VectorKernels`, written against the Vector API, when
+ * the `jdk.incubator.vector` module is present (`--add-modules jdk.incubator.vector`), and
+ * `ScalarKernels` otherwise. The vector implementation is only ever loaded reflectively, so
+ * nothing links against the incubator module unless it is there.
+ *
+ * `Evaluator` runs single operators over heap arrays on the vector kernels, unless its `Execution`
+ * names others (see `Execution.withKernels`). Deeper trees stay compiled (see `Compiler`): one
+ * fused loop keeps intermediates in registers, where kernels would write every intermediate to
+ * memory, and C2 already vectorizes the simple loops that the scalar kernels consist of.
+ */
+abstract class Kernels {
+  static Kernels Instance = load();
+
+  abstract boolean isVectorized();
+
+  abstract void longs(String symbol, long[] left, int l, long[] right, int r, long[] out, int o, int length);
+
+  abstract void doubles(String symbol, double[] left, int l, double[] right, int r, double[] out, int o, int length);
+
+  abstract void mixed(String symbol, long[] left, int l, double[] right, int r, double[] out, int o, int length);
+
+  abstract void mixed(String symbol, double[] left, int l, long[] right, int r, double[] out, int o, int length);
+
+  /**
+   * Whether `Evaluator` should run `expr` on `kernels`, those of an `Execution`: a single
+   * arithmetic operator over two heap array columns, with kernels to run it on.
+   */
+  static boolean canRun(Expr expr, Kernels kernels) {
+    if (kernels == null || !(expr instanceof Expr.Binary) || !expr.isNumeric()) return false;
+    Expr.Binary binary = (Expr.Binary) expr;
+    return isArray(binary.left) && isArray(binary.right);
+  }
+
+  private static boolean isArray(Expr expr) {
+    return expr instanceof Expr.LongRef || expr instanceof Expr.DoubleRef;
+  }
+
+  /**
+   * Evaluates rows `[from, to)` of a single operator over two array columns into the same rows of
+   * `out`, which must be a `long[]` for integer expressions and a `double[]` for decimal ones.
+   */
+  void run(Expr expr, Object out, int from, int to) {
+    Expr.Binary binary = (Expr.Binary) expr;
+    Object left = array(binary.left), right = array(binary.right);
+    String symbol = binary.symbol;
+    int length = to - from;
+
+    if (left instanceof long[] && right instanceof long[]) longs(symbol, (long[]) left, from, (long[]) right, from, (long[]) out, from, length);
+    else if (left instanceof long[]) mixed(symbol, (long[]) left, from, (double[]) right, from, (double[]) out, from, length);
+    else if (right instanceof long[]) mixed(symbol, (double[]) left, from, (long[]) right, from, (double[]) out, from, length);
+    else doubles(symbol, (double[]) left, from, (double[]) right, from, (double[]) out, from, length);
+  }
+
+  private static Object array(Expr expr) {
+    return expr instanceof Expr.LongRef ? ((Expr.LongRef) expr).longs : ((Expr.DoubleRef) expr).doubles;
+  }
+
+  // Integer division by zero yields 0, and the row NA (see `Expr.LongDivide`); no kernel
+  // vectorizes it, as hardware has no vector integer division.
+  static long divide(long left, long right) {
+    return right == 0 ? 0 : left / right;
+  }
+
+  private static Kernels load() {
+    if (ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent()) {
+      try {
+        return (Kernels) Class.forName("net.degoes.project.dataset1.VectorKernels").getDeclaredConstructor().newInstance();
+      } catch (ReflectiveOperationException | LinkageError ex) {
+        // Fall through to the scalar kernels.
+      }
+    }
+    return new ScalarKernels();
+  }
+}
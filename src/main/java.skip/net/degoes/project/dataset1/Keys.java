@@ -0,0 +1,80 @@
+package net.degoes.project.dataset1;
+
+/**
+ * Packs the cells of one or more key columns into primitive longs, one long per column, for
+ * hashing: integers as themselves, decimals as their bits, and text as its dictionary code. Keys
+ * that are compared with other keys (see `align`) may instead pack integers as the bits of the
+ * equivalent decimal, and text as the code of the same string in the other key's dictionary.
+ */
+final class Keys {
+  Column[] columns;
+  boolean[] widened;
+  int[][] translations;
+  boolean nullable;
+
+  Keys(Dataset dataset, Field[] fields) {
+    if (fields.length > 64) throw new IllegalArgumentException("Cannot use more than 64 key fields");
+
+    this.columns = new Column[fields.length];
+    this.widened = new boolean[fields.length];
+    this.translations = new int[fields.length][];
+    for (int c = 0; c < fields.length; c++) {
+      Dataset key = dataset.apply(fields[c]);
+      if (key.names.length == 0) throw new IllegalArgumentException("No field named " + fields[c].name);
+
+      columns[c] = key.column(0);
+      nullable |= columns[c].isNullable();
+    }
+  }
+
+  int width() {
+    return columns.length;
+  }
+
+  /**
+   * Packs the key of `row` into `key[offset, offset + width)` and returns a mask with bit `c` set
+   * when key column `c` is NA, in which case its long is 0.
+   */
+  long pack(int row, long[] key, int offset) {
+    long na = 0;
+    for (int c = 0; c < columns.length; c++) {
+      Column column = columns[c];
+      if (!column.isValid(row)) {
+        key[offset + c] = 0;
+        na |= 1L << c;
+      } else if (column.type == Column.Type.INTEGER) {
+        key[offset + c] = widened[c] ? bits(column.getLong(row)) : column.getLong(row);
+      } else if (column.type == Column.Type.DECIMAL) {
+        key[offset + c] = bits(column.getDouble(row));
+      } else {
+        int code = column.getCode(row);
+        key[offset + c] = translations[c] != null ? translations[c][code] : code;
+      }
+    }
+    return na;
+  }
+
+  /**
+   * Prepares `probe` keys to be compared with `build` keys. Integer keys compared with decimal
+   * keys are widened to decimals, and probe text is translated into the dictionary of the build
+   * text, where strings the build side lacks get code -1 and match nothing. Returns false if some
+   * key pair can never be equal, such as text and numbers.
+   */
+  static boolean align(Keys probe, Keys build) {
+    for (int c = 0; c < probe.columns.length; c++) {
+      Column p = probe.columns[c], b = build.columns[c];
+      if ((p.type == Column.Type.TEXT) != (b.type == Column.Type.TEXT)) return false;
+      if (p.type != b.type) {
+        probe.widened[c] = true;
+        build.widened[c] = true;
+      }
+      if (p.type == Column.Type.TEXT && p.dictionary != b.dictionary) probe.translations[c] = b.dictionary.translate(p.dictionary);
+    }
+    return true;
+  }
+
+  // -0.0 and 0.0 are one key, as are all NaNs:
+  static long bits(double value) {
+    return value == 0.0 ? 0L : Double.doubleToLongBits(value);
+  }
+}
@@ -0,0 +1,200 @@
+package net.degoes.project.dataset1;
+
+import java.util.Arrays;
+
+/**
+ * A condition on the rows of a dataset, such as `start.lessThan(90).and(netPay.greaterThan(30000))`,
+ * for `Dataset.filter`. Comparisons with NA, with a missing field, or between text and numbers
+ * never hold.
+ *
+ * A predicate selects rows into a selection vector: the ascending indices of the rows that
+ * satisfy it. `and` tests its right side only on the rows selected by its left side, so put the
+ * most selective condition first.
+ */
+public abstract class Predicate {
+  // Comparisons are bit masks of the orderings they accept:
+  static final int Less    = 1;
+  static final int Equal   = 2;
+  static final int Greater = 4;
+
+  Predicate() {}
+
+  public Predicate and(Predicate that) {
+    return new And(this, that);
+  }
+
+  public Predicate or(Predicate that) {
+    return new Or(this, that);
+  }
+
+  /**
+   * Selects those of `candidates` that satisfy this predicate, or those of all rows when
+   * `candidates` is `null`.
+   */
+  abstract int[] select(Dataset dataset, int[] candidates);
+
+  static final class Compare extends Predicate {
+    Field field;
+    int accepts;
+    long longValue;
+    double doubleValue;
+    String textValue;
+    boolean integral;
+
+    Compare(Field field, int accepts, long value) {
+      this.field = field;
+      this.accepts = accepts;
+      this.longValue = value;
+      this.doubleValue = value;
+      this.integral = true;
+    }
+
+    Compare(Field field, int accepts, double value) {
+      this.field = field;
+      this.accepts = accepts;
+      this.longValue = (long) value;
+      this.doubleValue = value;
+    }
+
+    Compare(Field field, int accepts, String value) {
+      this.field = field;
+      this.accepts = accepts;
+      this.textValue = value;
+    }
+
+    int[] select(Dataset dataset, int[] candidates) {
+      Expr expr = dataset.apply(field).single();
+      boolean comparable = expr != null && (textValue != null ? expr.type == Column.Type.TEXT : expr.isNumeric());
+      if (!comparable) return new int[0];
+
+      if (candidates != null) {
+        int[] out = new int[candidates.length];
+        return trim(out, matches(expr, candidates, 0, candidates.length, out, 0));
+      }
+
+      // Blocks whose zone map rules out a match are skipped, if the column has statistics already:
+      ColumnStats stats = expr instanceof Expr.Ref ? ((Expr.Ref) expr).column.stats : null;
+      long value = textValue != null ? expr.dictionary().find(textValue) : longValue;
+
+      // Every morsel selects into its own slice of `out`, and the slices are then packed:
+      Execution execution = dataset.execution;
+      int size = dataset.size, morselRows = execution.morselRows;
+      int[] out = new int[size];
+      int[] counts = new int[(size + morselRows - 1) / morselRows];
+      execution.forEachMorsel(size, (from, to) -> {
+        if (stats == null) {
+          counts[from / morselRows] = matches(expr, null, from, to, out, from);
+          return;
+        }
+        int count = 0;
+        for (int start = from; start < to; ) {
+          int block = start >>> ColumnStats.BlockBits;
+          int end = Math.min(to, (block + 1) << ColumnStats.BlockBits);
+          if (stats.mayMatch(block, accepts, value, doubleValue, integral)) count += matches(expr, null, start, end, out, from + count);
+          start = end;
+        }
+        counts[from / morselRows] = count;
+      });
+
+      int count = 0;
+      for (int m = 0; m < counts.length; m++) {
+        System.arraycopy(out, m * morselRows, out, count, counts[m]);
+        count += counts[m];
+      }
+      return trim(out, count);
+    }
+
+    /**
+     * Writes the rows of `[from, to)` that match, or of `candidates[from, to)` if not `null`, to
+     * `out` starting at `offset`, and returns how many there are.
+     */
+    private int matches(Expr expr, int[] candidates, int from, int to, int[] out, int offset) {
+      int count = offset;
+      boolean nullable = expr.nullable;
+      if (expr.type == Column.Type.TEXT) {
+        // Text is only tested for equality, which is equality of dictionary codes:
+        int code = expr.dictionary().find(textValue);
+        for (int i = from; i < to; i++) {
+          int row = candidates == null ? i : candidates[i];
+          if (nullable && !expr.isValid(row)) continue;
+          out[count] = row;
+          count += (accepts & (expr.getCode(row) == code ? Equal : Less | Greater)) == 0 ? 0 : 1;
+        }
+      } else if (expr.type == Column.Type.INTEGER && integral) {
+        long value = longValue;
+        long[] longs = !nullable && expr instanceof Expr.LongRef ? ((Expr.LongRef) expr).longs : null;
+        for (int i = from; i < to; i++) {
+          int row = candidates == null ? i : candidates[i];
+          if (nullable && !expr.isValid(row)) continue;
+          // Written without a branch on the outcome, which is unpredictable for most filters:
+          out[count] = row;
+          count += (accepts & order(longs != null ? longs[row] : expr.getLong(row), value)) == 0 ? 0 : 1;
+        }
+      } else {
+        double value = doubleValue;
+        for (int i = from; i < to; i++) {
+          int row = candidates == null ? i : candidates[i];
+          if (nullable && !expr.isValid(row)) continue;
+          out[count] = row;
+          count += (accepts & order(expr.getDouble(row), value)) == 0 ? 0 : 1;
+        }
+      }
+      return count - offset;
+    }
+
+    private static int order(long left, long right) {
+      return left < right ? Less : left == right ? Equal : Greater;
+    }
+
+    // NaN is neither less than, equal to nor greater than anything:
+    private static int order(double left, double right) {
+      return left < right ? Less : left == right ? Equal : left > right ? Greater : 0;
+    }
+  }
+
+  static final class And extends Predicate {
+    Predicate left;
+    Predicate right;
+
+    And(Predicate left, Predicate right) {
+      this.left = left;
+      this.right = right;
+    }
+
+    int[] select(Dataset dataset, int[] candidates) {
+      int[] selected = left.select(dataset, candidates);
+      return selected.length == 0 ? selected : right.select(dataset, selected);
+    }
+  }
+
+  static final class Or extends Predicate {
+    Predicate left;
+    Predicate right;
+
+    Or(Predicate left, Predicate right) {
+      this.left = left;
+      this.right = right;
+    }
+
+    int[] select(Dataset dataset, int[] candidates) {
+      int[] l = left.select(dataset, candidates);
+      int[] r = right.select(dataset, candidates);
+
+      // Both selections are ascending, so their union is a merge:
+      int[] out = new int[l.length + r.length];
+      int i = 0, j = 0, count = 0;
+      while (i < l.length && j < r.length) {
+        if (l[i] < r[j]) out[count++] = l[i++];
+        else if (l[i] > r[j]) out[count++] = r[j++];
+        else { out[count++] = l[i++]; j++; }
+      }
+      while (i < l.length) out[count++] = l[i++];
+      while (j < r.length) out[count++] = r[j++];
+      return trim(out, count);
+    }
+  }
+
+  static int[] trim(int[] rows, int count) {
+    return count == rows.length ? rows : Arrays.copyOf(rows, count);
+  }
+}
@@ -9,15 +9,62 @@ import zio.Chunk;
 import scala.util.Random;
 import io.vavr.collection.Map;
 import io.vavr.collection.HashMap;
+import java.util.NoSuchElementException;
+import java.util.function.BiConsumer;
 
+/**
+ * One row of named cells. A row either wraps a map from field names to values, or holds its cells
+ * in an array, by slot, together with the `Schema` that names the slots. Rows of one schema share
+ * it, so every cell is read by index: resolve a field to its slot once with `Schema.slot`, then
+ * call `get` for each row, with no hashing per cell.
+ */
 public class Row {
   Map<String, Value> map;
-  
+  Schema schema;
+  Value[] values;
+
   public Row(Map<String, Value> map) {
     this.map = map;
   }
 
+  /**
+   * A row of `schema`, with the cell of slot `i` in `values[i]`, or `Value.NA` if it is missing.
+   */
+  public Row(Schema schema, Value[] values) {
+    if (values.length != schema.size()) throw new IllegalArgumentException("Schema has " + schema.size() + " fields, but row has " + values.length + " cells");
+
+    this.schema = schema;
+    this.values = values;
+  }
+
+  /**
+   * The schema of this row, or `null` for a row wrapping a map.
+   */
+  public Schema schema() {
+    return schema;
+  }
+
+  public Value get(int slot) {
+    if (values == null) throw new IllegalStateException("Row has no schema; use a row built from a Schema");
+    return values[slot];
+  }
+
   Value apply(Field field) {
-    return map.apply(field.name);
+    if (values == null) return map.apply(field.name);
+
+    int slot = schema.slot(field);
+    if (slot < 0) throw new NoSuchElementException(field.name);
+    return values[slot];
+  }
+
+  // Every cell that is not NA, with its name:
+  void forEach(BiConsumer<String, Value> action) {
+    if (values == null) {
+      map.forEach(action);
+      return;
+    }
+    for (int slot = 0; slot < values.length; slot++) {
+      if (values[slot] != Value.NA) action.accept(schema.names[slot], values[slot]);
+    }
   }
 }
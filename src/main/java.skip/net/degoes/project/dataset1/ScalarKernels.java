@@ -0,0 +1,51 @@
+package net.degoes.project.dataset1;
+
+/**
+ * Plain loops, one per operator so that each stays a simple counted loop, which C2 unrolls and
+ * often auto-vectorizes.
+ */
+final class ScalarKernels extends Kernels {
+  boolean isVectorized() {
+    return false;
+  }
+
+  void longs(String symbol, long[] left, int l, long[] right, int r, long[] out, int o, int length) {
+    switch (symbol) {
+      case "+": for (int i = 0; i < length; i++) out[o + i] = left[l + i] + right[r + i]; break;
+      case "-": for (int i = 0; i < length; i++) out[o + i] = left[l + i] - right[r + i]; break;
+      case "*": for (int i = 0; i < length; i++) out[o + i] = left[l + i] * right[r + i]; break;
+      case "/": for (int i = 0; i < length; i++) out[o + i] = divide(left[l + i], right[r + i]); break;
+      default:  throw new IllegalArgumentException(symbol);
+    }
+  }
+
+  void doubles(String symbol, double[] left, int l, double[] right, int r, double[] out, int o, int length) {
+    switch (symbol) {
+      case "+": for (int i = 0; i < length; i++) out[o + i] = left[l + i] + right[r + i]; break;
+      case "-": for (int i = 0; i < length; i++) out[o + i] = left[l + i] - right[r + i]; break;
+      case "*": for (int i = 0; i < length; i++) out[o + i] = left[l + i] * right[r + i]; break;
+      case "/": for (int i = 0; i < length; i++) out[o + i] = left[l + i] / right[r + i]; break;
+      default:  throw new IllegalArgumentException(symbol);
+    }
+  }
+
+  void mixed(String symbol, long[] left, int l, double[] right, int r, double[] out, int o, int length) {
+    switch (symbol) {
+      case "+": for (int i = 0; i < length; i++) out[o + i] = left[l + i] + right[r + i]; break;
+      case "-": for (int i = 0; i < length; i++) out[o + i] = left[l + i] - right[r + i]; break;
+      case "*": for (int i = 0; i < length; i++) out[o + i] = left[l + i] * right[r + i]; break;
+      case "/": for (int i = 0; i < length; i++) out[o + i] = left[l + i] / right[r + i]; break;
+      default:  throw new IllegalArgumentException(symbol);
+    }
+  }
+
+  void mixed(String symbol, double[] left, int l, long[] right, int r, double[] out, int o, int length) {
+    switch (symbol) {
+      case "+": for (int i = 0; i < length; i++) out[o + i] = left[l + i] + right[r + i]; break;
+      case "-": for (int i = 0; i < length; i++) out[o + i] = left[l + i] - right[r + i]; break;
+      case "*": for (int i = 0; i < length; i++) out[o + i] = left[l + i] * right[r + i]; break;
+      case "/": for (int i = 0; i < length; i++) out[o + i] = left[l + i] / right[r + i]; break;
+      default:  throw new IllegalArgumentException(symbol);
+    }
+  }
+}
@@ -0,0 +1,66 @@
+package net.degoes.project.dataset1;
+
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * The names and value types of the columns of a dataset, in order. Types are given as the `Value`
+ * class every cell of the column holds: `Value.Integer`, `Value.Decimal` or `Value.Text`.
+ */
+public final class Schema {
+  String[] names;
+  Column.Type[] types;
+  HashMap<String, Integer> slots = new HashMap<>();
+
+  Schema(String[] names, Column.Type[] types) {
+    this.names = names;
+    this.types = types;
+    // Of duplicate names, the first is the one found:
+    for (int i = names.length - 1; i >= 0; i--) slots.put(names[i], i);
+  }
+
+  public static Schema empty() {
+    return new Schema(new String[0], new Column.Type[0]);
+  }
+
+  public Schema with(Field field, Class<? extends Value> type) {
+    String[] names = Arrays.copyOf(this.names, this.names.length + 1);
+    Column.Type[] types = Arrays.copyOf(this.types, this.types.length + 1);
+    names[names.length - 1] = field.name;
+    types[types.length - 1] = typeOf(type);
+    return new Schema(names, types);
+  }
+
+  public int size() {
+    return names.length;
+  }
+
+  int indexOf(String name) {
+    Integer slot = slots.get(name);
+    return slot == null ? -1 : slot;
+  }
+
+  /**
+   * The slot of `field` in rows of this schema, or -1 if it has none. Resolve fields to slots once,
+   * then read every row with `Row.get`.
+   */
+  public int slot(Field field) {
+    return indexOf(field.name);
+  }
+
+  static Column.Type typeOf(Class<? extends Value> type) {
+    if (type == Value.Integer.class) return Column.Type.INTEGER;
+    if (type == Value.Decimal.class) return Column.Type.DECIMAL;
+    if (type == Value.Text.class) return Column.Type.TEXT;
+    throw new IllegalArgumentException("Columns hold Value.Integer, Value.Decimal or Value.Text, not " + type.getName());
+  }
+
+  public String toString() {
+    StringBuilder builder = new StringBuilder("Schema(");
+    for (int i = 0; i < names.length; i++) {
+      if (i > 0) builder.append(", ");
+      builder.append(names[i]).append(": ").append(types[i]);
+    }
+    return builder.append(')').toString();
+  }
+}
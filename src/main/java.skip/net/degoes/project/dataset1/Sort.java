@@ -0,0 +1,252 @@
+package net.degoes.project.dataset1;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Sorting and top-K selection of a dataset by one column, producing a permutation of its rows
+ * rather than moving any data.
+ *
+ * Every valid cell is first mapped to a long whose unsigned order is the order of the cells:
+ * integers with the sign bit flipped, decimals by their bits with negative numbers inverted (so
+ * that `-0.0` sorts before `0.0`, and NaN after infinity, as in `Double.compare`), and text by the
+ * rank of its string in the sorted dictionary. Descending sorts invert the longs. The longs are
+ * then sorted together with their row numbers by a least-significant-digit radix sort, which
+ * skips the digits on which all keys agree, such as the high bytes of small integers and ranks.
+ *
+ * On a parallel execution, every worker sorts a contiguous range of rows and the sorted runs are
+ * merged pairwise, as in a merge sort. Sorts are stable, and NA rows always come last.
+ */
+final class Sort {
+  static final int DigitBits = 8;
+  static final int Digits = 64 / DigitBits;
+
+  // Sorted keys and their row numbers:
+  static final class Run {
+    long[] keys;
+    int[] rows;
+
+    Run(long[] keys, int[] rows) {
+      this.keys = keys;
+      this.rows = rows;
+    }
+  }
+
+  static int[] sort(Dataset dataset, Field field, boolean ascending) {
+    Column column = column(dataset, field);
+    long[] ranks = ranks(column);
+    Run sorted = dataset.execution.reduceRanges(dataset.size,
+      (from, to) -> radixSort(keys(column, ranks, ascending, from, to)),
+      Sort::merge
+    );
+
+    int[] rows = Arrays.copyOf(sorted.rows, dataset.size);
+    int count = sorted.rows.length;
+    if (column.isNullable()) {
+      for (int i = 0; i < dataset.size; i++) {
+        if (!column.isValid(i)) rows[count++] = i;
+      }
+    }
+    return rows;
+  }
+
+  /**
+   * The rows of the `k` largest valid cells of `field`, largest first, found with one bounded heap
+   * per range of rows in O(n log k). Of equal cells, earlier rows come first.
+   */
+  static int[] top(Dataset dataset, Field field, int k) {
+    if (k < 0) throw new IllegalArgumentException("k must not be negative");
+
+    Column column = column(dataset, field);
+    long[] ranks = ranks(column);
+    Heap heap = dataset.execution.reduceRanges(dataset.size,
+      (from, to) -> {
+        Heap range = new Heap(k);
+        for (int i = from; i < to; i++) {
+          if (column.isValid(i)) range.offer(key(column, ranks, i), i);
+        }
+        return range;
+      },
+      (left, right) -> {
+        for (int i = 0; i < right.size; i++) left.offer(right.keys[i], right.rows[i]);
+        return left;
+      }
+    );
+    return heap.drain();
+  }
+
+  private static Column column(Dataset dataset, Field field) {
+    Dataset key = dataset.apply(field);
+    if (key.names.length == 0) throw new IllegalArgumentException("No field named " + field.name);
+    return key.column(0);
+  }
+
+  // The rank of every string of a text column's dictionary, in sorted order, or `null` for numbers:
+  private static long[] ranks(Column column) {
+    if (column.type != Column.Type.TEXT) return null;
+
+    Dictionary dictionary = column.dictionary;
+    Integer[] codes = new Integer[dictionary.size()];
+    for (int code = 0; code < codes.length; code++) codes[code] = code;
+    Comparator<String> strings = Comparator.nullsFirst(Comparator.naturalOrder());
+    Arrays.sort(codes, (a, b) -> strings.compare(dictionary.decode(a), dictionary.decode(b)));
+
+    long[] ranks = new long[codes.length];
+    for (int rank = 0; rank < codes.length; rank++) ranks[codes[rank]] = rank;
+    return ranks;
+  }
+
+  static long key(Column column, long[] ranks, int row) {
+    switch (column.type) {
+      case INTEGER:
+        return column.getLong(row) ^ Long.MIN_VALUE;
+      case DECIMAL:
+        long bits = Double.doubleToLongBits(column.getDouble(row));
+        return bits < 0 ? ~bits : bits ^ Long.MIN_VALUE;
+      default:
+        return ranks[column.getCode(row)];
+    }
+  }
+
+  // The keys of the valid rows of `[from, to)`, in row order:
+  private static Run keys(Column column, long[] ranks, boolean ascending, int from, int to) {
+    long[] keys = new long[to - from];
+    int[] rows = new int[to - from];
+    int count = 0;
+    long invert = ascending ? 0 : -1L;
+    for (int i = from; i < to; i++) {
+      if (!column.isValid(i)) continue;
+      keys[count] = key(column, ranks, i) ^ invert;
+      rows[count++] = i;
+    }
+    return count == keys.length ? new Run(keys, rows) : new Run(Arrays.copyOf(keys, count), Arrays.copyOf(rows, count));
+  }
+
+  static Run radixSort(Run run) {
+    long[] keys = run.keys;
+    int[] rows = run.rows;
+    int n = keys.length;
+    if (n < 2) return run;
+
+    // One pass counts the values of every digit:
+    int[][] counts = new int[Digits][1 << DigitBits];
+    for (long key : keys) {
+      for (int d = 0; d < Digits; d++) counts[d][(int) (key >>> (d * DigitBits)) & 0xFF]++;
+    }
+
+    long[] keysOut = new long[n];
+    int[] rowsOut = new int[n];
+    for (int d = 0; d < Digits; d++) {
+      int[] count = counts[d];
+      int shift = d * DigitBits;
+      if (count[(int) (keys[0] >>> shift) & 0xFF] == n) continue;
+
+      int[] starts = new int[1 << DigitBits];
+      for (int v = 1; v < starts.length; v++) starts[v] = starts[v - 1] + count[v - 1];
+      for (int i = 0; i < n; i++) {
+        int at = starts[(int) (keys[i] >>> shift) & 0xFF]++;
+        keysOut[at] = keys[i];
+        rowsOut[at] = rows[i];
+      }
+
+      long[] swapKeys = keys; keys = keysOut; keysOut = swapKeys;
+      int[] swapRows = rows; rows = rowsOut; rowsOut = swapRows;
+    }
+    return new Run(keys, rows);
+  }
+
+  // Merges runs of consecutive ranges, taking the left one first among equal keys to stay stable:
+  static Run merge(Run left, Run right) {
+    int n = left.keys.length + right.keys.length;
+    long[] keys = new long[n];
+    int[] rows = new int[n];
+    int l = 0, r = 0;
+    for (int i = 0; i < n; i++) {
+      if (r == right.keys.length || (l < left.keys.length && Long.compareUnsigned(left.keys[l], right.keys[r]) <= 0)) {
+        keys[i] = left.keys[l];
+        rows[i] = left.rows[l++];
+      } else {
+        keys[i] = right.keys[r];
+        rows[i] = right.rows[r++];
+      }
+    }
+    return new Run(keys, rows);
+  }
+
+  /**
+   * The best `limit` rows offered so far, as a binary heap with the worst at the root. A row is
+   * better than another if its key is larger, or equal with a smaller row number. The arrays grow
+   * up to `limit` as needed, so a large `k` costs nothing for few rows.
+   */
+  static final class Heap {
+    int limit;
+    long[] keys;
+    int[] rows;
+    int size = 0;
+
+    Heap(int limit) {
+      this.limit = limit;
+      this.keys = new long[Math.min(limit, 16)];
+      this.rows = new int[keys.length];
+    }
+
+    void offer(long key, int row) {
+      if (size == keys.length && size < limit) {
+        keys = Arrays.copyOf(keys, (int) Math.min(limit, 2L * size));
+        rows = Arrays.copyOf(rows, keys.length);
+      }
+      if (size < keys.length) {
+        keys[size] = key;
+        rows[size] = row;
+        up(size++);
+      } else if (size > 0 && worse(keys[0], rows[0], key, row)) {
+        keys[0] = key;
+        rows[0] = row;
+        down(0);
+      }
+    }
+
+    // The rows of the heap, best first; empties the heap:
+    int[] drain() {
+      int[] best = new int[size];
+      while (size > 0) {
+        best[size - 1] = rows[0];
+        size--;
+        keys[0] = keys[size];
+        rows[0] = rows[size];
+        down(0);
+      }
+      return best;
+    }
+
+    private static boolean worse(long key, int row, long thanKey, int thanRow) {
+      int order = Long.compareUnsigned(key, thanKey);
+      return order < 0 || (order == 0 && row > thanRow);
+    }
+
+    private void up(int i) {
+      while (i > 0) {
+        int parent = (i - 1) >>> 1;
+        if (!worse(keys[i], rows[i], keys[parent], rows[parent])) return;
+        swap(i, parent);
+        i = parent;
+      }
+    }
+
+    private void down(int i) {
+      while (true) {
+        int worst = i, left = 2 * i + 1, right = left + 1;
+        if (left < size && worse(keys[left], rows[left], keys[worst], rows[worst])) worst = left;
+        if (right < size && worse(keys[right], rows[right], keys[worst], rows[worst])) worst = right;
+        if (worst == i) return;
+        swap(i, worst);
+        i = worst;
+      }
+    }
+
+    private void swap(int i, int j) {
+      long key = keys[i]; keys[i] = keys[j]; keys[j] = key;
+      int row = rows[i]; rows[i] = rows[j]; rows[j] = row;
+    }
+  }
+}
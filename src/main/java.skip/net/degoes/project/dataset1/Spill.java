@@ -0,0 +1,35 @@
+package net.degoes.project.dataset1;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.stream.Stream;
+
+/**
+ * A private temporary directory for the intermediate state of one out-of-core operation, such as
+ * the partitions of a spilled group-by or join. Closing it deletes everything written there.
+ */
+final class Spill implements Closeable {
+  Path directory;
+  int files;
+
+  /**
+   * Creates the directory under `parent`, or under the default temporary directory if `parent` is
+   * `null`.
+   */
+  Spill(Path parent) throws IOException {
+    this.directory = parent == null ? Files.createTempDirectory("dataset-spill") : Files.createTempDirectory(parent, "dataset-spill");
+  }
+
+  Path file(String prefix) {
+    return directory.resolve(prefix + "-" + files++);
+  }
+
+  public void close() throws IOException {
+    try (Stream<Path> paths = Files.list(directory)) {
+      for (Path path : (Iterable<Path>) paths::iterator) Files.deleteIfExists(path);
+    }
+    Files.deleteIfExists(directory);
+  }
+}
@@ -0,0 +1,195 @@
+package net.degoes.project.dataset1;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+
+/**
+ * Hash aggregation of a `ChunkedDataset`, within a memory budget.
+ *
+ * Batches aggregate into one `GroupTable`, as in `GroupBy`. Text keys are translated into one
+ * dictionary per key column, since every batch may have dictionaries of its own, and keys always
+ * carry the long of NA bits, since batches differ in which keys have NA cells.
+ *
+ * When the table outgrows the budget after a batch, its groups are appended to one of
+ * `Partitions` spill files by hash, and aggregation starts over with an empty table. A group can
+ * then be spilled many times, but always to the same partition, so at the end every partition is
+ * merged on its own, needing memory for only its share of the groups.
+ */
+final class SpillingGroupBy {
+  static final int PartitionBits = 5;
+  static final int Partitions = 1 << PartitionBits;
+
+  Field[] fields;
+  GroupBy.Op op;
+  Field field;
+  long memoryBytes;
+  Path spillDirectory;
+
+  int width;
+  Column.Type[] types;
+  Dictionary[] dictionaries;
+  Column.Type valueType;
+  boolean numeric;
+  boolean nullable = false;
+  GroupTable table;
+
+  Spill spill = null;
+  FileChannel[] channels = new FileChannel[Partitions];
+  DatasetFile.Output[] outputs = new DatasetFile.Output[Partitions];
+
+  SpillingGroupBy(ChunkedDataset chunked, Field[] fields, GroupBy.Op op, Field field) throws IOException {
+    this(chunked.schema(), fields, op, field, chunked.memoryBytes, chunked.spillDirectory);
+  }
+
+  /**
+   * Aggregates batches with the columns of `schema`, which fixes the types of the keys and of the
+   * aggregated values however the batches come. Values of a field `schema` lacks are all NA.
+   */
+  SpillingGroupBy(Schema schema, Field[] fields, GroupBy.Op op, Field field, long memoryBytes, Path spillDirectory) {
+    this.fields = fields;
+    this.op = op;
+    this.field = field;
+    this.memoryBytes = memoryBytes;
+    this.spillDirectory = spillDirectory;
+    this.width = fields.length + 1;
+    this.dictionaries = new Dictionary[fields.length];
+    this.table = new GroupTable(width);
+
+    this.types = new Column.Type[fields.length];
+    for (int c = 0; c < fields.length; c++) {
+      int slot = schema.slot(fields[c]);
+      if (slot < 0) throw new IllegalArgumentException("No field named " + fields[c].name);
+      types[c] = schema.types[slot];
+    }
+    int slot = op == GroupBy.Op.COUNT ? -1 : schema.slot(field);
+    this.valueType = slot < 0 ? Column.Type.INTEGER : schema.types[slot];
+    this.numeric = valueType != Column.Type.TEXT;
+  }
+
+  /**
+   * Aggregates `field` (nothing, for `COUNT`) of every batch by `fields`, into a column named `name`.
+   */
+  static Dataset aggregate(ChunkedDataset chunked, Field[] fields, GroupBy.Op op, Field field, String name) throws IOException {
+    SpillingGroupBy groupBy = new SpillingGroupBy(chunked, fields, op, field);
+    try {
+      try (ChunkedDataset.Batches batches = chunked.batches()) {
+        while (batches.hasNext()) groupBy.add(batches.next());
+      }
+      return groupBy.result(name).withExecution(chunked.execution);
+    } finally {
+      groupBy.close();
+    }
+  }
+
+  void add(Dataset batch) throws IOException {
+    Keys keys = new Keys(batch, fields);
+    Expr values = op == GroupBy.Op.COUNT ? null : batch.apply(field).single();
+    if (values == null) values = new Expr.NA(valueType);
+
+    for (int c = 0; c < fields.length; c++) {
+      if (keys.columns[c].type != types[c]) throw new IllegalStateException("Field " + fields[c].name + " changes type between batches");
+      if (types[c] == Column.Type.TEXT) {
+        if (dictionaries[c] == null) dictionaries[c] = new Dictionary();
+        keys.translations[c] = dictionaries[c].encode(keys.columns[c].dictionary);
+      }
+    }
+    if (values.type != valueType && op != GroupBy.Op.COUNT) throw new IllegalStateException("Field " + field.name + " changes type between batches");
+    nullable |= keys.nullable;
+
+    Expr aggregated = values;
+    boolean integers = valueType == Column.Type.INTEGER;
+    if (batch.execution.isParallel(batch.size)) {
+      GroupTable partial = batch.execution.reduceRanges(batch.size,
+        (from, to) -> {
+          GroupTable range = new GroupTable(width);
+          GroupBy.accumulate(range, keys, op, aggregated, numeric, from, to);
+          return range;
+        },
+        (left, right) -> left.merge(right, op, integers)
+      );
+      table.merge(partial, op, integers);
+    } else {
+      GroupBy.accumulate(table, keys, op, aggregated, numeric, 0, batch.size);
+    }
+
+    if (table.bytes() > memoryBytes) spillTable();
+  }
+
+  Dataset result(String name) throws IOException {
+    if (spill == null) return GroupBy.result(table, fields, types, dictionaries, nullable, op, valueType, numeric, name);
+
+    spillTable();
+    table = null;
+    for (DatasetFile.Output output : outputs) {
+      if (output != null) output.flush();
+    }
+
+    ArrayList<Dataset> results = new ArrayList<>();
+    for (int p = 0; p < Partitions; p++) {
+      if (channels[p] != null) results.add(GroupBy.result(merge(channels[p]), fields, types, dictionaries, nullable, op, valueType, numeric, name));
+    }
+    return ChunkedDataset.concat(results, null);
+  }
+
+  // Every group is one record: the key longs, then the count, the long and double accumulators, and the compensation.
+  private void spillTable() throws IOException {
+    if (spill == null) spill = new Spill(spillDirectory);
+
+    GroupTable table = this.table;
+    for (int g = 0; g < table.groups; g++) {
+      int p = GroupTable.hash(table.keys, g * width, width) >>> (32 - PartitionBits);
+      DatasetFile.Output output = output(p);
+      for (int i = 0; i < width; i++) output.putLong(table.keys[g * width + i]);
+      output.putLong(table.counts[g]);
+      output.putLong(table.longs[g]);
+      output.putDouble(table.doubles[g]);
+      output.putDouble(table.compensations[g]);
+    }
+    this.table = new GroupTable(width);
+  }
+
+  private DatasetFile.Output output(int partition) throws IOException {
+    if (outputs[partition] == null) {
+      Path path = spill.file("groups");
+      channels[partition] = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE);
+      outputs[partition] = new DatasetFile.Output(channels[partition]);
+    }
+    return outputs[partition];
+  }
+
+  // Reads back every record of one partition into a table of its own:
+  private GroupTable merge(FileChannel channel) throws IOException {
+    GroupTable merged = new GroupTable(width);
+    boolean integers = valueType == Column.Type.INTEGER;
+    int recordBytes = 8 * (width + 4);
+    ByteBuffer buffer = ByteBuffer.allocate(recordBytes * Math.max(1, (1 << 16) / recordBytes)).order(ByteOrder.LITTLE_ENDIAN);
+    long[] key = new long[width];
+    long position = 0;
+    while (true) {
+      buffer.clear();
+      while (buffer.hasRemaining() && channel.read(buffer, position + buffer.position()) > 0) continue;
+      buffer.flip();
+      if (!buffer.hasRemaining()) return merged;
+      position += buffer.remaining();
+
+      while (buffer.remaining() >= recordBytes) {
+        for (int i = 0; i < width; i++) key[i] = buffer.getLong();
+        long count = buffer.getLong(), longs = buffer.getLong();
+        double doubles = buffer.getDouble(), compensation = buffer.getDouble();
+        merged.combine(merged.groupOf(key), count, longs, doubles, compensation, op, integers);
+      }
+    }
+  }
+
+  void close() throws IOException {
+    for (FileChannel channel : channels) {
+      if (channel != null) channel.close();
+    }
+    if (spill != null) spill.close();
+  }
+}
@@ -0,0 +1,118 @@
+package net.degoes.project.dataset1;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.LongVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Kernels written against the Vector API, processing as many lanes per instruction as the
+ * preferred vector shape allows, with a scalar loop for the remaining tail. Every operator has its
+ * own loop, because C2 only intrinsifies `lanewise` when the operator is a constant.
+ *
+ * Longs and doubles are both 64 bits wide, so their preferred species have the same number of
+ * lanes, and mixed operations widen a long vector to a double vector lane for lane.
+ *
+ * Only loaded when `jdk.incubator.vector` is present; see `Kernels`.
+ */
+final class VectorKernels extends Kernels {
+  static final VectorSpecies<Long> Longs = LongVector.SPECIES_PREFERRED;
+  static final VectorSpecies<Double> Doubles = DoubleVector.SPECIES_PREFERRED;
+
+  boolean isVectorized() {
+    return true;
+  }
+
+  void longs(String symbol, long[] left, int l, long[] right, int r, long[] out, int o, int length) {
+    int i = 0, bound = Longs.loopBound(length), step = Longs.length();
+    switch (symbol) {
+      case "+":
+        for (; i < bound; i += step) LongVector.fromArray(Longs, left, l + i).lanewise(VectorOperators.ADD, LongVector.fromArray(Longs, right, r + i)).intoArray(out, o + i);
+        for (; i < length; i++) out[o + i] = left[l + i] + right[r + i];
+        return;
+      case "-":
+        for (; i < bound; i += step) LongVector.fromArray(Longs, left, l + i).lanewise(VectorOperators.SUB, LongVector.fromArray(Longs, right, r + i)).intoArray(out, o + i);
+        for (; i < length; i++) out[o + i] = left[l + i] - right[r + i];
+        return;
+      case "*":
+        for (; i < bound; i += step) LongVector.fromArray(Longs, left, l + i).lanewise(VectorOperators.MUL, LongVector.fromArray(Longs, right, r + i)).intoArray(out, o + i);
+        for (; i < length; i++) out[o + i] = left[l + i] * right[r + i];
+        return;
+      case "/": for (; i < length; i++) out[o + i] = divide(left[l + i], right[r + i]); return;
+      default:  throw new IllegalArgumentException(symbol);
+    }
+  }
+
+  void doubles(String symbol, double[] left, int l, double[] right, int r, double[] out, int o, int length) {
+    int i = 0, bound = Doubles.loopBound(length), step = Doubles.length();
+    switch (symbol) {
+      case "+":
+        for (; i < bound; i += step) DoubleVector.fromArray(Doubles, left, l + i).lanewise(VectorOperators.ADD, DoubleVector.fromArray(Doubles, right, r + i)).intoArray(out, o + i);
+        for (; i < length; i++) out[o + i] = left[l + i] + right[r + i];
+        return;
+      case "-":
+        for (; i < bound; i += step) DoubleVector.fromArray(Doubles, left, l + i).lanewise(VectorOperators.SUB, DoubleVector.fromArray(Doubles, right, r + i)).intoArray(out, o + i);
+        for (; i < length; i++) out[o + i] = left[l + i] - right[r + i];
+        return;
+      case "*":
+        for (; i < bound; i += step) DoubleVector.fromArray(Doubles, left, l + i).lanewise(VectorOperators.MUL, DoubleVector.fromArray(Doubles, right, r + i)).intoArray(out, o + i);
+        for (; i < length; i++) out[o + i] = left[l + i] * right[r + i];
+        return;
+      case "/":
+        for (; i < bound; i += step) DoubleVector.fromArray(Doubles, left, l + i).lanewise(VectorOperators.DIV, DoubleVector.fromArray(Doubles, right, r + i)).intoArray(out, o + i);
+        for (; i < length; i++) out[o + i] = left[l + i] / right[r + i];
+        return;
+      default:  throw new IllegalArgumentException(symbol);
+    }
+  }
+
+  void mixed(String symbol, long[] left, int l, double[] right, int r, double[] out, int o, int length) {
+    int i = 0, bound = Doubles.loopBound(length), step = Doubles.length();
+    switch (symbol) {
+      case "+":
+        for (; i < bound; i += step) widen(left, l + i).lanewise(VectorOperators.ADD, DoubleVector.fromArray(Doubles, right, r + i)).intoArray(out, o + i);
+        for (; i < length; i++) out[o + i] = left[l + i] + right[r + i];
+        return;
+      case "-":
+        for (; i < bound; i += step) widen(left, l + i).lanewise(VectorOperators.SUB, DoubleVector.fromArray(Doubles, right, r + i)).intoArray(out, o + i);
+        for (; i < length; i++) out[o + i] = left[l + i] - right[r + i];
+        return;
+      case "*":
+        for (; i < bound; i += step) widen(left, l + i).lanewise(VectorOperators.MUL, DoubleVector.fromArray(Doubles, right, r + i)).intoArray(out, o + i);
+        for (; i < length; i++) out[o + i] = left[l + i] * right[r + i];
+        return;
+      case "/":
+        for (; i < bound; i += step) widen(left, l + i).lanewise(VectorOperators.DIV, DoubleVector.fromArray(Doubles, right, r + i)).intoArray(out, o + i);
+        for (; i < length; i++) out[o + i] = left[l + i] / right[r + i];
+        return;
+      default:  throw new IllegalArgumentException(symbol);
+    }
+  }
+
+  void mixed(String symbol, double[] left, int l, long[] right, int r, double[] out, int o, int length) {
+    int i = 0, bound = Doubles.loopBound(length), step = Doubles.length();
+    switch (symbol) {
+      case "+":
+        for (; i < bound; i += step) DoubleVector.fromArray(Doubles, left, l + i).lanewise(VectorOperators.ADD, widen(right, r + i)).intoArray(out, o + i);
+        for (; i < length; i++) out[o + i] = left[l + i] + right[r + i];
+        return;
+      case "-":
+        for (; i < bound; i += step) DoubleVector.fromArray(Doubles, left, l + i).lanewise(VectorOperators.SUB, widen(right, r + i)).intoArray(out, o + i);
+        for (; i < length; i++) out[o + i] = left[l + i] - right[r + i];
+        return;
+      case "*":
+        for (; i < bound; i += step) DoubleVector.fromArray(Doubles, left, l + i).lanewise(VectorOperators.MUL, widen(right, r + i)).intoArray(out, o + i);
+        for (; i < length; i++) out[o + i] = left[l + i] * right[r + i];
+        return;
+      case "/":
+        for (; i < bound; i += step) DoubleVector.fromArray(Doubles, left, l + i).lanewise(VectorOperators.DIV, widen(right, r + i)).intoArray(out, o + i);
+        for (; i < length; i++) out[o + i] = left[l + i] / right[r + i];
+        return;
+      default:  throw new IllegalArgumentException(symbol);
+    }
+  }
+
+  private static DoubleVector widen(long[] longs, int offset) {
+    return (DoubleVector) LongVector.fromArray(Longs, longs, offset).convert(VectorOperators.L2D, 0);
+  }
+}
@@ -0,0 +1,44 @@
+package net.degoes.project.dataset1
+
+import zio.Chunk
+import zio.test._
+import io.vavr.collection.HashMap
+
+object DatasetSpec extends ZIOSpecDefault {
+  val x = new Field("x")
+  val y = new Field("y")
+
+  def dataset(rows: (Value, Value)*): Dataset =
+    new Dataset(Chunk.fromIterable(rows.map { case (x, y) => new Row(HashMap.of[String, Value]("x", x, "y", y)) }))
+
+  def cells(dataset: Dataset): List[Any] =
+    dataset.toRows.toList.map(_.get(0)).map {
+      case value: Value.Integer => value.value
+      case value: Value.Decimal => value.value
+      case value: Value.Text    => value.value
+      case _                    => "NA"
+    }
+
+  val mixed =
+    dataset(
+      (new Value.Integer(7L), new Value.Integer(2L)),
+      (new Value.Decimal(2.5), new Value.Integer(2L)),
+      (new Value.Text("seven"), new Value.Integer(1L)),
+      (new Value.Integer(9L), new Value.Integer(0L))
+    )
+
+  def spec =
+    suite("DatasetSpec")(
+      suite("mixed cells")(
+        test("round-trip through a dataset") {
+          assertTrue(cells(mixed(x)) == List(7L, 2.5, "seven", 9L))
+        },
+        test("divide as integers where both cells are integers") {
+          assertTrue(cells(mixed(x).divide(mixed(y))) == List(3L, 1.25, "NA", "NA"))
+        },
+        test("add per cell, with text as NA") {
+          assertTrue(cells(mixed(x).plus(mixed(y))) == List(9L, 4.5, "NA", 9L))
+        }
+      )
+    )
+}